@@ -1,42 +1,244 @@
 package pl.bpiatek.linkshortenerdashboardqueryservice.api;
 
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.ClickTimeSeriesResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.CursorPagedResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinkDetailsResponse;
 import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinksResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.LinkCitiesResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.LinkDetailsBatchRequest;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.LinkDetailsBatchResponse;
 import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.PagedResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.BoundingBox;
 import pl.bpiatek.linkshortenerdashboardqueryservice.domain.DashboardFacade;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.ExportFormat;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.InvalidCursorException;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.LinkDimension;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.LinkVersion;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.LinksPageVersion;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.TimeSeriesGranularity;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/dashboard")
 class DashboardController {
 
+    private static final int MAX_TOP_N = 1000;
+    private static final int MAX_BATCH_LINK_IDS = 100;
+    private static final int MAX_ZOOM = 22;
+
     private final DashboardFacade facade;
 
     DashboardController(DashboardFacade facade) {
         this.facade = facade;
     }
 
+    // Tagged from the page itself, so the tag matches the content whichever replica served it;
+    // a 304 saves the response body, not the read.
     @GetMapping("/links")
     ResponseEntity<PagedResponse<DashboardLinksResponse>> getUserLinks(
             @RequestHeader("X-User-Id") String userId,
-            Pageable pageable) {
+            Pageable pageable,
+            WebRequest request) {
+        var response = PagedResponse.from(facade.getUserLinks(userId, pageable));
+        var eTag = LinksPageVersion.eTag(response);
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(eTag).body(response);
+    }
+
+    @GetMapping(value = "/links", params = "cursor")
+    ResponseEntity<CursorPagedResponse<DashboardLinksResponse>> getUserLinksByCursor(
+            @RequestHeader("X-User-Id") String userId,
+            @RequestParam String cursor,
+            Pageable pageable,
+            WebRequest request) {
+        var response = facade.getUserLinks(userId, cursor, pageable);
+        var eTag = LinksPageVersion.eTag(response);
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(eTag).body(response);
+    }
+
+    // The body streams asynchronously, so the export's own timeout replaces the container's default, and the
+    // permit is returned as soon as the request times out or fails, even if the body never started.
+    @GetMapping("/links/export")
+    ResponseEntity<StreamingResponseBody> exportUserLinks(
+            @RequestHeader("X-User-Id") String userId,
+            @RequestParam(defaultValue = "NDJSON") ExportFormat format,
+            @RequestParam(defaultValue = "false") boolean includeDimensions,
+            WebRequest request) {
+        return facade.exportUserLinks(userId, format, includeDimensions)
+                .map(export -> {
+                    var asyncManager = WebAsyncUtils.getAsyncManager(request);
+                    asyncManager.getAsyncWebRequest().setTimeout(export.timeout().toMillis());
+                    asyncManager.registerCallableInterceptor(export, new ExportReleasingInterceptor(export));
+                    return ResponseEntity.ok()
+                            .contentType(format.mediaType())
+                            .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                                    .filename("links." + format.extension())
+                                    .build()
+                                    .toString())
+                            .<StreamingResponseBody>body(export);
+                })
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
 
-        var links = facade.getUserLinks(userId, pageable);
-        var response = PagedResponse.from(links);
-        return ResponseEntity.ok(response);
+    @GetMapping(value = "/links/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    ResponseEntity<SseEmitter> streamClicks(@RequestHeader("X-User-Id") String userId) {
+        return facade.streamClicks(userId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
     }
 
     @GetMapping("/links/{linkId}")
     ResponseEntity<Object> getLink(
             @RequestHeader("X-User-Id") String userId,
-            @PathVariable String linkId) {
-        var optionalLink = facade.getLink(userId, linkId);
-        return optionalLink.<ResponseEntity<Object>>map(ResponseEntity::ok)
+            @PathVariable String linkId,
+            @RequestParam(required = false) Integer topN,
+            @RequestParam(required = false) Set<String> include,
+            WebRequest request) {
+        if (topN != null || include != null) {
+            return getLinkTopDimensions(userId, linkId, topN, include, request);
+        }
+
+        if (isNotModified(userId, linkId, request)) {
+            return null;
+        }
+        return withETag(facade.getLink(userId, linkId));
+    }
+
+    private ResponseEntity<Object> getLinkTopDimensions(String userId, String linkId, Integer topN,
+                                                        Set<String> include, WebRequest request) {
+        if (topN != null && (topN < 1 || topN > MAX_TOP_N)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        var dimensions = EnumSet.allOf(LinkDimension.class);
+        if (include != null) {
+            dimensions.clear();
+            for (var name : include) {
+                var dimension = Arrays.stream(LinkDimension.values())
+                        .filter(candidate -> candidate.name().equalsIgnoreCase(name.trim()))
+                        .findFirst();
+                if (dimension.isEmpty()) {
+                    return ResponseEntity.badRequest().build();
+                }
+                dimensions.add(dimension.get());
+            }
+        }
+
+        if (isNotModified(userId, linkId, request)) {
+            return null;
+        }
+        return withETag(facade.getLink(userId, linkId, dimensions, topN != null ? topN : MAX_TOP_N));
+    }
+
+    // Decided on the version alone, so only requests that can be answered with a 304 pay for the extra lookup.
+    private boolean isNotModified(String userId, String linkId, WebRequest request) {
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) == null) {
+            return false;
+        }
+        return facade.getLinkVersion(userId, linkId)
+                .map(version -> request.checkNotModified(version.eTag()))
+                .orElse(false);
+    }
+
+    private static ResponseEntity<Object> withETag(Optional<DashboardLinkDetailsResponse> link) {
+        return link.<ResponseEntity<Object>>map(details -> ResponseEntity.ok()
+                        .eTag(LinkVersion.of(details).eTag())
+                        .body(details))
                 .orElseGet(() -> ResponseEntity.notFound().build());
     }
+
+    @PostMapping("/links/details:batch")
+    ResponseEntity<LinkDetailsBatchResponse> getLinks(
+            @RequestHeader("X-User-Id") String userId,
+            @RequestBody LinkDetailsBatchRequest request) {
+        var linkIds = request.linkIds();
+        if (linkIds == null || linkIds.isEmpty() || linkIds.size() > MAX_BATCH_LINK_IDS
+                || linkIds.stream().anyMatch(linkId -> linkId == null || linkId.isBlank())) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return ResponseEntity.ok(new LinkDetailsBatchResponse(facade.getLinks(userId, linkIds)));
+    }
+
+    @GetMapping("/links/{linkId}/timeseries")
+    ResponseEntity<ClickTimeSeriesResponse> getLinkTimeSeries(
+            @RequestHeader("X-User-Id") String userId,
+            @PathVariable String linkId,
+            @RequestParam Instant from,
+            @RequestParam Instant to,
+            @RequestParam(defaultValue = "DAY") TimeSeriesGranularity granularity) {
+        if (!from.isBefore(to) || Duration.between(from, to).compareTo(granularity.maxRange()) > 0) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return facade.getLinkTimeSeries(userId, linkId, from, to, granularity)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // Without zoom the top cities are listed one by one; with it they are clustered for that map zoom level.
+    @GetMapping("/links/{linkId}/cities")
+    ResponseEntity<LinkCitiesResponse> getLinkCities(
+            @RequestHeader("X-User-Id") String userId,
+            @PathVariable String linkId,
+            @RequestParam(required = false) Integer topN,
+            @RequestParam(required = false) Integer zoom,
+            @RequestParam(required = false) Double west,
+            @RequestParam(required = false) Double south,
+            @RequestParam(required = false) Double east,
+            @RequestParam(required = false) Double north) {
+        if ((topN != null && (topN < 1 || topN > MAX_TOP_N)) || (zoom != null && (zoom < 0 || zoom > MAX_ZOOM))) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        BoundingBox box = null;
+        if (west != null || south != null || east != null || north != null) {
+            if (west == null || south == null || east == null || north == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            box = new BoundingBox(west, south, east, north);
+            if (!box.isValid()) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
+
+        return facade.getLinkCities(userId, linkId, box, zoom, topN != null ? topN : MAX_TOP_N)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @ExceptionHandler(InvalidCursorException.class)
+    ResponseEntity<Void> handleInvalidCursor() {
+        return ResponseEntity.badRequest().build();
+    }
 }
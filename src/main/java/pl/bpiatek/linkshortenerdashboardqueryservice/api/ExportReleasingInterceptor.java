@@ -0,0 +1,37 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.api;
+
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.LinkExport;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Returns the permit of an export whose request timed out or failed, rather than waiting for the body
+ * to hit an I/O error on a stream the container has already closed.
+ */
+class ExportReleasingInterceptor implements CallableProcessingInterceptor {
+
+    private final LinkExport export;
+
+    ExportReleasingInterceptor(LinkExport export) {
+        this.export = export;
+    }
+
+    @Override
+    public <T> Object handleTimeout(NativeWebRequest request, Callable<T> task) {
+        export.release();
+        return RESULT_NONE;
+    }
+
+    @Override
+    public <T> Object handleError(NativeWebRequest request, Callable<T> task, Throwable t) {
+        export.release();
+        return RESULT_NONE;
+    }
+
+    @Override
+    public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+        export.release();
+    }
+}
@@ -0,0 +1,10 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.api.dto;
+
+public record CityClusterResponse(
+        Double latitude,
+        Double longitude,
+        long clicks,
+        int cities,
+        String countryCode,
+        String cityName
+) {}
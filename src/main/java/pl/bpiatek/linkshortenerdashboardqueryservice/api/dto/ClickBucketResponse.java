@@ -0,0 +1,10 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.api.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+public record ClickBucketResponse(
+        Instant bucketStart,
+        long clicks,
+        List<MetricEntryResponse> clicksByCountry
+) {}
@@ -0,0 +1,9 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.api.dto;
+
+import java.util.List;
+
+public record ClickTimeSeriesResponse(
+        String linkId,
+        String granularity,
+        List<ClickBucketResponse> buckets
+) {}
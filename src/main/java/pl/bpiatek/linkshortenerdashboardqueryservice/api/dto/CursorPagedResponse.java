@@ -0,0 +1,10 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.api.dto;
+
+import java.util.List;
+
+// nextCursor is null on the last page.
+public record CursorPagedResponse<T>(
+        List<T> content,
+        int size,
+        String nextCursor
+) {}
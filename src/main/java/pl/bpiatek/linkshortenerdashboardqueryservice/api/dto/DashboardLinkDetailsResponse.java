@@ -14,5 +14,6 @@ public record DashboardLinkDetailsResponse(
         long totalClicks,
         List<MetricEntryResponse> clicksByCountry,
         List<MetricEntryResponse> clicksByDevice,
-        List<MetricEntryResponse> clicksByOs
+        List<MetricEntryResponse> clicksByOs,
+        List<MetricEntryResponse> clicksByCity
 ) {}
\ No newline at end of file
@@ -0,0 +1,9 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.api.dto;
+
+import java.util.List;
+
+public record LinkCitiesResponse(
+        String linkId,
+        Integer zoom,
+        List<CityClusterResponse> clusters
+) {}
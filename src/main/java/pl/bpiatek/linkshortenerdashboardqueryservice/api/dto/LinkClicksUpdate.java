@@ -0,0 +1,7 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.api.dto;
+
+public record LinkClicksUpdate(
+        String linkId,
+        long totalClicks,
+        long delta
+) {}
@@ -0,0 +1,7 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.api.dto;
+
+import java.util.List;
+
+public record LinkDetailsBatchResponse(
+        List<DashboardLinkDetailsResponse> links
+) {}
@@ -0,0 +1,206 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ListOffsetsResult.ListOffsetsResultInfo;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Adjusts the concurrency of the enriched click listener container between the configured bounds.
+ * Scales up while the consumer group lags and the database keeps up, and scales down once the lag is gone
+ * or the database slows down, since more consumers would only queue more writes.
+ */
+@Component
+@ConditionalOnProperty(name = "dashboard.kafka.autoscaler.enabled", havingValue = "true")
+class ClickConsumerAutoscaler {
+
+    private static final Logger log = LoggerFactory.getLogger(ClickConsumerAutoscaler.class);
+    private static final String LISTENER_ID = "enriched-clicks";
+
+    private final KafkaListenerEndpointRegistry registry;
+    private final AdminClient adminClient;
+    private final MeterRegistry meterRegistry;
+    private final Clock clock;
+    private final String groupId;
+    private final String topic;
+    private final boolean startFromEarliest;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final long scaleUpLag;
+    private final long scaleDownLag;
+    private final Duration maxWriteLatency;
+    private final Duration cooldown;
+
+    private final AtomicInteger concurrency = new AtomicInteger();
+    private final AtomicLong lag = new AtomicLong();
+    private final TimerIntervalMean writeLatency;
+    private Instant lastChange = Instant.EPOCH;
+
+    ClickConsumerAutoscaler(KafkaListenerEndpointRegistry registry,
+                            AdminClient adminClient,
+                            MeterRegistry meterRegistry,
+                            Clock clock,
+                            KafkaProperties kafkaProperties,
+                            @Value("${topic.analytics.enriched}") String topic,
+                            @Value("${dashboard.kafka.autoscaler.min-concurrency:1}") int minConcurrency,
+                            @Value("${dashboard.kafka.autoscaler.max-concurrency:4}") int maxConcurrency,
+                            @Value("${dashboard.kafka.autoscaler.scale-up-lag:10000}") long scaleUpLag,
+                            @Value("${dashboard.kafka.autoscaler.scale-down-lag:1000}") long scaleDownLag,
+                            @Value("${dashboard.kafka.autoscaler.max-write-latency:200ms}") Duration maxWriteLatency,
+                            @Value("${dashboard.kafka.autoscaler.cooldown:2m}") Duration cooldown) {
+        this.registry = registry;
+        this.adminClient = adminClient;
+        this.meterRegistry = meterRegistry;
+        this.clock = clock;
+        this.groupId = kafkaProperties.getConsumer().getGroupId();
+        this.topic = topic;
+        this.startFromEarliest = "earliest".equalsIgnoreCase(kafkaProperties.getConsumer().getAutoOffsetReset());
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.scaleUpLag = scaleUpLag;
+        this.scaleDownLag = scaleDownLag;
+        this.maxWriteLatency = maxWriteLatency;
+        this.cooldown = cooldown;
+        this.writeLatency = new TimerIntervalMean(() -> Stream.concat(
+                meterRegistry.find("dashboard.clicks.write").timers().stream(),
+                meterRegistry.find("dashboard.clicks.flush").timers().stream()).toList());
+
+        Gauge.builder("dashboard.kafka.autoscaler.concurrency", concurrency, AtomicInteger::get)
+                .description("Concurrency of the enriched click listener container chosen by the autoscaler")
+                .register(meterRegistry);
+        Gauge.builder("dashboard.kafka.autoscaler.lag", lag, AtomicLong::get)
+                .description("Consumer group lag on the enriched click topic seen by the autoscaler")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${dashboard.kafka.autoscaler.interval-ms:30000}")
+    void evaluate() {
+        if (!(registry.getListenerContainer(LISTENER_ID) instanceof ConcurrentMessageListenerContainer<?, ?> container)) {
+            return;
+        }
+        concurrency.set(container.getConcurrency());
+
+        long currentLag;
+        int partitions;
+        try {
+            var topicPartitions = topicPartitions();
+            var committed = adminClient.listConsumerGroupOffsets(groupId)
+                    .partitionsToOffsetAndMetadata()
+                    .get(5, TimeUnit.SECONDS);
+            var ends = listOffsets(topicPartitions, OffsetSpec.latest());
+            // A partition the group never committed is read from the start of the log when the reset
+            // policy is earliest, and from its end otherwise.
+            var uncommitted = topicPartitions.stream()
+                    .filter(partition -> committed.get(partition) == null)
+                    .toList();
+            var starts = startFromEarliest ? listOffsets(uncommitted, OffsetSpec.earliest()) : ends;
+            currentLag = lag(topicPartitions, committed, starts, ends);
+            partitions = topicPartitions.size();
+        } catch (Exception e) {
+            log.warn("Autoscaler could not read the lag of group '{}': {}", groupId, e.getMessage());
+            return;
+        }
+        lag.set(currentLag);
+
+        var meanWriteLatency = writeLatency.next();
+        var now = clock.instant();
+        if (Duration.between(lastChange, now).compareTo(cooldown) < 0) {
+            return;
+        }
+
+        var current = container.getConcurrency();
+        var upperBound = Math.min(maxConcurrency, Math.max(partitions, minConcurrency));
+        var databaseSlow = meanWriteLatency.compareTo(maxWriteLatency) > 0;
+        if (databaseSlow && current > minConcurrency) {
+            resize(container, current - 1, "database-latency");
+        } else if (!databaseSlow && currentLag > scaleUpLag && current < upperBound) {
+            resize(container, current + 1, "lag");
+        } else if (currentLag < scaleDownLag && current > minConcurrency) {
+            resize(container, current - 1, "idle");
+        } else {
+            return;
+        }
+        lastChange = now;
+    }
+
+    // Concurrency only takes effect on start, so the container is restarted; the group rebalances once.
+    private void resize(ConcurrentMessageListenerContainer<?, ?> container, int target, String reason) {
+        var direction = target > container.getConcurrency() ? "up" : "down";
+        log.info("Scaling enriched click consumers {} from {} to {} ({}, lag {}).",
+                direction, container.getConcurrency(), target, reason, lag.get());
+
+        container.stop();
+        container.setConcurrency(target);
+        container.start();
+        concurrency.set(target);
+
+        Counter.builder("dashboard.kafka.autoscaler.decisions")
+                .description("Concurrency changes made by the autoscaler")
+                .tag("direction", direction)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private List<TopicPartition> topicPartitions() throws Exception {
+        var description = adminClient.describeTopics(List.of(topic))
+                .allTopicNames()
+                .get(5, TimeUnit.SECONDS)
+                .get(topic);
+        return description.partitions().stream()
+                .map(partition -> new TopicPartition(topic, partition.partition()))
+                .toList();
+    }
+
+    private Map<TopicPartition, ListOffsetsResultInfo> listOffsets(List<TopicPartition> partitions, OffsetSpec spec)
+            throws Exception {
+        if (partitions.isEmpty()) {
+            return Map.of();
+        }
+        return adminClient.listOffsets(partitions.stream()
+                        .collect(Collectors.toMap(partition -> partition, partition -> spec)))
+                .all()
+                .get(5, TimeUnit.SECONDS);
+    }
+
+    private static long lag(List<TopicPartition> partitions,
+                            Map<TopicPartition, OffsetAndMetadata> committed,
+                            Map<TopicPartition, ListOffsetsResultInfo> starts,
+                            Map<TopicPartition, ListOffsetsResultInfo> ends) {
+        var total = 0L;
+        for (var partition : partitions) {
+            var end = ends.get(partition);
+            var offset = committed.get(partition);
+            var start = offset != null ? offset.offset() : starts.containsKey(partition)
+                    ? starts.get(partition).offset() : -1;
+            if (end != null && start >= 0) {
+                total += Math.max(0, end.offset() - start);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,29 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import java.util.Arrays;
+
+/**
+ * Values of {@code dashboard.clicks.ingest-mode}. The consumer beans are selected by the exact property value, so an
+ * unknown value fails startup instead of leaving the enriched click topic without a listener.
+ */
+enum ClickIngestMode {
+    RECORD("record"),
+    BATCH("batch"),
+    WRITE_BEHIND("write-behind"),
+    PARALLEL("parallel");
+
+    private final String value;
+
+    ClickIngestMode(String value) {
+        this.value = value;
+    }
+
+    static ClickIngestMode of(String value) {
+        return Arrays.stream(values())
+                .filter(mode -> mode.value.equals(value))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "Unknown dashboard.clicks.ingest-mode '%s', expected one of record, batch, write-behind, parallel"
+                                .formatted(value)));
+    }
+}
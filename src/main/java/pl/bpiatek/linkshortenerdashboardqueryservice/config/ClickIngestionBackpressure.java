@@ -0,0 +1,144 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Gives dashboard reads priority over click ingestion. Pauses the enriched click listener container while
+ * read latency or the connection wait time of the query pool is above the pause thresholds, and resumes it once both are back
+ * under the lower resume thresholds, or after the maximum pause, so ingestion never stalls indefinitely.
+ * A resume forced by the maximum pause is held for a resume window before ingestion may pause again; the window
+ * doubles with each consecutive forced resume up to the maximum, and resets once reads recover on their own.
+ */
+@Component
+@ConditionalOnProperty(name = "dashboard.clicks.backpressure.enabled", havingValue = "true")
+class ClickIngestionBackpressure {
+
+    private static final Logger log = LoggerFactory.getLogger(ClickIngestionBackpressure.class);
+    private static final String LISTENER_ID = "enriched-clicks";
+
+    private final KafkaListenerEndpointRegistry registry;
+    private final Clock clock;
+    private final Duration readLatencyPauseThreshold;
+    private final Duration readLatencyResumeThreshold;
+    private final Duration poolWaitPauseThreshold;
+    private final Duration poolWaitResumeThreshold;
+    private final Duration maxPause;
+    private final Duration minResume;
+    private final Duration maxResume;
+
+    private final TimerIntervalMean readLatency;
+    private final TimerIntervalMean poolWait;
+    private final Counter pauses;
+    private final Counter resumes;
+    private volatile boolean paused;
+    private Instant pausedAt;
+    private Instant holdUntil = Instant.EPOCH;
+    private Duration nextHold;
+
+    ClickIngestionBackpressure(KafkaListenerEndpointRegistry registry,
+                               MeterRegistry meterRegistry,
+                               Clock clock,
+                               @Value("${dashboard.clicks.backpressure.read-latency.pause-threshold:250ms}") Duration readLatencyPauseThreshold,
+                               @Value("${dashboard.clicks.backpressure.read-latency.resume-threshold:100ms}") Duration readLatencyResumeThreshold,
+                               @Value("${dashboard.clicks.backpressure.pool-wait.pause-threshold:50ms}") Duration poolWaitPauseThreshold,
+                               @Value("${dashboard.clicks.backpressure.pool-wait.resume-threshold:10ms}") Duration poolWaitResumeThreshold,
+                               @Value("${dashboard.clicks.backpressure.max-pause:30s}") Duration maxPause,
+                               @Value("${dashboard.clicks.backpressure.min-resume:30s}") Duration minResume,
+                               @Value("${dashboard.clicks.backpressure.max-resume:5m}") Duration maxResume) {
+        this.registry = registry;
+        this.clock = clock;
+        this.readLatencyPauseThreshold = readLatencyPauseThreshold;
+        this.readLatencyResumeThreshold = readLatencyResumeThreshold;
+        this.poolWaitPauseThreshold = poolWaitPauseThreshold;
+        this.poolWaitResumeThreshold = poolWaitResumeThreshold;
+        this.maxPause = maxPause;
+        this.minResume = minResume;
+        this.maxResume = maxResume;
+        this.nextHold = minResume;
+        this.readLatency = new TimerIntervalMean(() -> meterRegistry.find("dashboard.reads").timers());
+        this.poolWait = new TimerIntervalMean(() -> meterRegistry.find("hikaricp.connections.acquire")
+                .tag("pool", "query")
+                .timers());
+
+        this.pauses = Counter.builder("dashboard.clicks.backpressure.transitions")
+                .description("Pauses and resumes of click ingestion triggered by read latency")
+                .tag("action", "pause")
+                .register(meterRegistry);
+        this.resumes = Counter.builder("dashboard.clicks.backpressure.transitions")
+                .description("Pauses and resumes of click ingestion triggered by read latency")
+                .tag("action", "resume")
+                .register(meterRegistry);
+        Gauge.builder("dashboard.clicks.backpressure.paused", this, backpressure -> backpressure.paused ? 1 : 0)
+                .description("Whether click ingestion is paused to protect dashboard reads")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${dashboard.clicks.backpressure.interval-ms:1000}")
+    void evaluate() {
+        var container = registry.getListenerContainer(LISTENER_ID);
+        if (container == null || !container.isRunning()) {
+            return;
+        }
+        // A restart, e.g. by the autoscaler, clears the pause.
+        paused = container.isPauseRequested();
+
+        var meanReadLatency = readLatency.next();
+        var meanPoolWait = poolWait.next();
+        var now = clock.instant();
+        if (paused && pausedAt == null) {
+            pausedAt = now;
+        }
+
+        if (!paused && now.isAfter(holdUntil) && (exceeds(meanReadLatency, readLatencyPauseThreshold)
+                || exceeds(meanPoolWait, poolWaitPauseThreshold))) {
+            log.warn("Pausing click ingestion: mean read latency {} ms, mean pool wait {} ms.",
+                    meanReadLatency.toMillis(), meanPoolWait.toMillis());
+            container.pause();
+            paused = true;
+            pausedAt = now;
+            pauses.increment();
+        } else if (paused && !exceeds(meanReadLatency, readLatencyResumeThreshold)
+                && !exceeds(meanPoolWait, poolWaitResumeThreshold)) {
+            log.info("Resuming click ingestion: mean read latency {} ms, mean pool wait {} ms.",
+                    meanReadLatency.toMillis(), meanPoolWait.toMillis());
+            resume(container);
+            nextHold = minResume;
+        } else if (paused && Duration.between(pausedAt, now).compareTo(maxPause) >= 0) {
+            log.warn("Resuming click ingestion after {} s paused, holding it for {} s: mean read latency {} ms, "
+                            + "mean pool wait {} ms.", maxPause.toSeconds(), nextHold.toSeconds(),
+                    meanReadLatency.toMillis(), meanPoolWait.toMillis());
+            resume(container);
+            holdUntil = now.plus(nextHold);
+            nextHold = min(nextHold.multipliedBy(2), maxResume);
+        }
+    }
+
+    private void resume(MessageListenerContainer container) {
+        container.resume();
+        paused = false;
+        pausedAt = null;
+        resumes.increment();
+    }
+
+    private static Duration min(Duration first, Duration second) {
+        return first.compareTo(second) <= 0 ? first : second;
+    }
+
+    private static boolean exceeds(Duration value, Duration threshold) {
+        return value.compareTo(threshold) > 0;
+    }
+}
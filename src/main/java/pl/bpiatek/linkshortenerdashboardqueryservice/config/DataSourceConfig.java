@@ -0,0 +1,141 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.jdbc.JdbcConnectionDetails;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Two bulkheaded pools on the same database. The primary "ingest" pool serves the Kafka consumers
+ * and every transaction; the "query" pool serves dashboard reads only, so a burst on one side cannot take
+ * all connections of the other. Both pools are bound to Hikari metrics under their pool names.
+ * Flyway migrates over unpooled connections without a statement timeout.
+ * With read replicas configured, the query pool only serves the reads no replica within the lag bound can take.
+ * Link exports hold a connection for a whole download, so they get a third pool, sized to their concurrency limit.
+ */
+@Configuration
+class DataSourceConfig {
+
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource dataSource(
+            DataSourceProperties properties,
+            ObjectProvider<JdbcConnectionDetails> connectionDetails,
+            @Value("${dashboard.datasource.ingest.statement-timeout:30s}") Duration statementTimeout) {
+        return pool(properties, connectionDetails.getIfAvailable(), "ingest", statementTimeout);
+    }
+
+    @Bean
+    @ConfigurationProperties("dashboard.datasource.query.hikari")
+    HikariDataSource queryDataSource(
+            DataSourceProperties properties,
+            ObjectProvider<JdbcConnectionDetails> connectionDetails,
+            @Value("${dashboard.datasource.query.statement-timeout:5s}") Duration statementTimeout) {
+        var dataSource = pool(properties, connectionDetails.getIfAvailable(), "query", statementTimeout);
+        // A request waiting seconds for a connection is already failed; give up early instead.
+        dataSource.setConnectionTimeout(2000);
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    // Migrations rewrite and backfill whole tables, which outlasts any statement timeout sized for ingest.
+    @Bean
+    @FlywayDataSource
+    SimpleDriverDataSource flywayDataSource(DataSourceProperties properties,
+                                            ObjectProvider<JdbcConnectionDetails> connectionDetails) {
+        var dataSource = build(properties, connectionDetails.getIfAvailable(), SimpleDriverDataSource.class);
+        var connectionProperties = new Properties();
+        connectionProperties.setProperty("options", "-c statement_timeout=0");
+        dataSource.setConnectionProperties(connectionProperties);
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("dashboard.datasource.export.hikari")
+    HikariDataSource exportDataSource(
+            DataSourceProperties properties,
+            ObjectProvider<JdbcConnectionDetails> connectionDetails,
+            @Value("${dashboard.datasource.export.statement-timeout:30s}") Duration statementTimeout,
+            @Value("${dashboard.export.max-concurrent:4}") int maxConcurrentExports) {
+        var dataSource = pool(properties, connectionDetails.getIfAvailable(), "export", statementTimeout);
+        dataSource.setMaximumPoolSize(maxConcurrentExports);
+        dataSource.setMinimumIdle(0);
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    JdbcTemplate exportJdbcTemplate(@Qualifier("exportDataSource") DataSource exportDataSource) {
+        return new JdbcTemplate(exportDataSource);
+    }
+
+    @Bean
+    @Primary
+    JdbcTemplate jdbcTemplate(DataSource dataSource) {
+        return new JdbcTemplate(dataSource);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dashboard.datasource.query.replica-urls")
+    ReplicaRoutingDataSource queryRoutingDataSource(
+            @Qualifier("queryDataSource") HikariDataSource queryDataSource,
+            MeterRegistry meterRegistry,
+            @Value("${dashboard.datasource.query.replica-urls}") List<String> replicaUrls,
+            @Value("${dashboard.datasource.query.replica-max-lag:5s}") Duration maxLag) {
+        var replicaPools = new ArrayList<HikariDataSource>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            var replica = new HikariDataSource();
+            queryDataSource.copyStateTo(replica);
+            replica.setJdbcUrl(replicaUrls.get(i).trim());
+            replica.setPoolName("query-replica-" + i);
+            replica.setMetricRegistry(meterRegistry);
+            replicaPools.add(replica);
+        }
+        return new ReplicaRoutingDataSource(queryDataSource, replicaPools, maxLag, meterRegistry);
+    }
+
+    @Bean
+    JdbcTemplate queryJdbcTemplate(@Qualifier("queryDataSource") DataSource queryDataSource,
+                                   ObjectProvider<ReplicaRoutingDataSource> queryRoutingDataSource) {
+        DataSource routing = queryRoutingDataSource.getIfAvailable();
+        return new JdbcTemplate(routing != null ? routing : queryDataSource);
+    }
+
+    private static HikariDataSource pool(DataSourceProperties properties, JdbcConnectionDetails connectionDetails,
+                                         String poolName, Duration statementTimeout) {
+        var dataSource = build(properties, connectionDetails, HikariDataSource.class);
+        dataSource.setPoolName(poolName);
+        dataSource.addDataSourceProperty("options", "-c statement_timeout=" + statementTimeout.toMillis());
+        return dataSource;
+    }
+
+    private static <T extends DataSource> T build(DataSourceProperties properties,
+                                                  JdbcConnectionDetails connectionDetails, Class<T> type) {
+        var builder = properties.initializeDataSourceBuilder().type(type);
+        if (connectionDetails != null) {
+            builder.url(connectionDetails.getJdbcUrl())
+                    .username(connectionDetails.getUsername())
+                    .password(connectionDetails.getPassword())
+                    .driverClassName(connectionDetails.getDriverClassName());
+        }
+        return builder.build();
+    }
+}
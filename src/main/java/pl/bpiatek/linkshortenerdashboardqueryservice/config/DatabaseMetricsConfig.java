@@ -0,0 +1,38 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+@Configuration
+class DatabaseMetricsConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseMetricsConfig.class);
+
+    @Bean
+    MeterBinder walMetrics(JdbcTemplate jdbcTemplate) {
+        return registry -> {
+            FunctionCounter.builder("dashboard.db.wal.bytes", jdbcTemplate, jdbc -> readWal(jdbc, "wal_bytes"))
+                    .description("WAL bytes generated by the database cluster")
+                    .baseUnit("bytes")
+                    .register(registry);
+            FunctionCounter.builder("dashboard.db.wal.records", jdbcTemplate, jdbc -> readWal(jdbc, "wal_records"))
+                    .description("WAL records generated by the database cluster")
+                    .register(registry);
+        };
+    }
+
+    private static double readWal(JdbcTemplate jdbcTemplate, String column) {
+        try {
+            var value = jdbcTemplate.queryForObject("SELECT " + column + " FROM pg_stat_wal", Number.class);
+            return value == null ? Double.NaN : value.doubleValue();
+        } catch (RuntimeException ex) {
+            log.debug("Could not read {} from pg_stat_wal.", column, ex);
+            return Double.NaN;
+        }
+    }
+}
@@ -4,7 +4,10 @@ import io.confluent.kafka.serializers.protobuf.KafkaProtobufDeserializer;
 import io.confluent.kafka.serializers.protobuf.KafkaProtobufDeserializerConfig;
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.context.annotation.Bean;
@@ -15,6 +18,7 @@ import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.listener.ContainerProperties.AckMode;
 import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
 import pl.bpiatek.contracts.link.LinkLifecycleEventProto.LinkLifecycleEvent;
 
@@ -50,7 +54,9 @@ class KafkaConfig {
     @Bean
     ConcurrentKafkaListenerContainerFactory<String, LinkClickEnrichedEvent> linkEnrichedClickEventContainerFactory(
             ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
-            ConsumerFactory<String, LinkClickEnrichedEvent> linkEnrichedClickEventConsumerFactory) {
+            ConsumerFactory<String, LinkClickEnrichedEvent> linkEnrichedClickEventConsumerFactory,
+            ObjectProvider<ConsumerRebalanceListener> clickIngestRebalanceListener,
+            @Value("${dashboard.clicks.ingest-mode:batch}") String ingestMode) {
 
         ConcurrentKafkaListenerContainerFactory<String, LinkClickEnrichedEvent> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
@@ -60,6 +66,27 @@ class KafkaConfig {
                 (ConsumerFactory) linkEnrichedClickEventConsumerFactory
         );
 
+        switch (ClickIngestMode.of(ingestMode)) {
+            case BATCH -> {
+                factory.setBatchListener(true);
+                factory.getContainerProperties().setAckMode(AckMode.BATCH);
+            }
+            case WRITE_BEHIND -> {
+                // Offsets are acknowledged by the accumulator once the flush covering them has committed.
+                factory.setBatchListener(true);
+                factory.getContainerProperties().setAckMode(AckMode.MANUAL);
+                clickIngestRebalanceListener.ifAvailable(factory.getContainerProperties()::setConsumerRebalanceListener);
+            }
+            case PARALLEL -> {
+                // Records are written on virtual threads; each acknowledgment closes the contiguous prefix
+                // of completed records of its partition and is committed by the consumer thread.
+                factory.getContainerProperties().setAckMode(AckMode.MANUAL);
+                clickIngestRebalanceListener.ifAvailable(factory.getContainerProperties()::setConsumerRebalanceListener);
+            }
+            case RECORD -> {
+            }
+        }
+
         return factory;
     }
 
@@ -78,7 +105,8 @@ class KafkaConfig {
     @Primary
     ConcurrentKafkaListenerContainerFactory<String, LinkLifecycleEvent> linkLifecycleEventsContainerFactory(
             ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
-            ConsumerFactory<String, LinkLifecycleEvent> linkLifecycleEventConsumerFactory) {
+            ConsumerFactory<String, LinkLifecycleEvent> linkLifecycleEventConsumerFactory,
+            @Value("${dashboard.lifecycle.ingest-mode:batch}") String ingestMode) {
 
         ConcurrentKafkaListenerContainerFactory<String, LinkLifecycleEvent> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
@@ -88,6 +116,11 @@ class KafkaConfig {
                 (ConsumerFactory) linkLifecycleEventConsumerFactory
         );
 
+        if (LifecycleIngestMode.of(ingestMode) == LifecycleIngestMode.BATCH) {
+            factory.setBatchListener(true);
+            factory.getContainerProperties().setAckMode(AckMode.BATCH);
+        }
+
         return factory;
     }
 
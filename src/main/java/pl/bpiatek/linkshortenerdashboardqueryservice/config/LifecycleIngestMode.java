@@ -0,0 +1,26 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import java.util.Arrays;
+
+/**
+ * Values of {@code dashboard.lifecycle.ingest-mode}. The consumer beans are selected by the exact property value, so
+ * an unknown value fails startup instead of leaving the link lifecycle topic without a listener.
+ */
+enum LifecycleIngestMode {
+    RECORD("record"),
+    BATCH("batch");
+
+    private final String value;
+
+    LifecycleIngestMode(String value) {
+        this.value = value;
+    }
+
+    static LifecycleIngestMode of(String value) {
+        return Arrays.stream(values())
+                .filter(mode -> mode.value.equals(value))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "Unknown dashboard.lifecycle.ingest-mode '%s', expected one of record, batch".formatted(value)));
+    }
+}
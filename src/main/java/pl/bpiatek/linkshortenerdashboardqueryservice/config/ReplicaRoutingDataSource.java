@@ -0,0 +1,185 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads dashboard reads over the read replicas whose replay lag is within the bound, round robin.
+ * Falls back to the primary while every replica lags or cannot hand out a connection.
+ * Lag is measured against the primary: each check samples the primary's WAL position, and a replica lags
+ * by the time since the primary first wrote past the position the replica has replayed. A replica whose
+ * WAL receiver stalled therefore falls behind as soon as the primary writes, not when it reconnects.
+ */
+class ReplicaRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private static final String PRIMARY_LSN_SQL = "SELECT (pg_current_wal_lsn() - '0/0')::bigint";
+    // NULL on a server that is not in recovery, which is then not counted as a replica in sync.
+    private static final String REPLAY_LSN_SQL = "SELECT (pg_last_wal_replay_lsn() - '0/0')::bigint";
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final Duration maxLag;
+    private final AtomicInteger next = new AtomicInteger();
+    // WAL positions of the primary at recent checks, oldest first, reaching back past the lag bound.
+    private final Deque<WalSample> primarySamples = new ArrayDeque<>();
+    private final Counter replicaReads;
+    private final Counter primaryReads;
+    private volatile List<Replica> current = List.of();
+
+    ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicaPools, Duration maxLag,
+                             MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.maxLag = maxLag;
+        this.replicas = new ArrayList<>();
+        for (var pool : replicaPools) {
+            var replica = new Replica(pool);
+            replicas.add(replica);
+            Gauge.builder("dashboard.datasource.replica.lag", replica, r -> r.lagMillis / 1000.0)
+                    .description("Replay lag of a read replica; negative when it cannot be measured")
+                    .baseUnit("seconds")
+                    .tag("replica", pool.getPoolName())
+                    .register(meterRegistry);
+        }
+
+        this.replicaReads = routedReads(meterRegistry, "replica");
+        this.primaryReads = routedReads(meterRegistry, "primary");
+    }
+
+    private static Counter routedReads(MeterRegistry meterRegistry, String target) {
+        return Counter.builder("dashboard.datasource.query.routed")
+                .description("Dashboard read connections handed out, by target")
+                .tag("target", target)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        var candidates = current;
+        for (int i = 0; i < candidates.size(); i++) {
+            var replica = candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+            try {
+                var connection = replica.pool.getConnection();
+                replicaReads.increment();
+                return connection;
+            } catch (SQLException ex) {
+                log.warn("Read replica {} unavailable: {}", replica.pool.getPoolName(), ex.getMessage());
+            }
+        }
+
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Connections are taken with the credentials of the pools.");
+    }
+
+    @Scheduled(fixedDelayString = "${dashboard.datasource.query.replica-lag-check-interval-ms:1000}")
+    synchronized void refreshReplayLag() {
+        var now = System.nanoTime();
+        var withinBound = new ArrayList<Replica>();
+        if (samplePrimary(now)) {
+            for (var replica : replicas) {
+                replica.lagMillis = replayLagMillis(replica, now);
+                if (replica.lagMillis >= 0 && replica.lagMillis <= maxLag.toMillis()) {
+                    withinBound.add(replica);
+                }
+            }
+        } else {
+            replicas.forEach(replica -> replica.lagMillis = -1);
+        }
+
+        if (withinBound.size() != current.size()) {
+            log.info("{} of {} read replicas within the replay lag bound of {}.",
+                    withinBound.size(), replicas.size(), maxLag);
+        }
+        current = List.copyOf(withinBound);
+    }
+
+    private boolean samplePrimary(long now) {
+        try {
+            var lsn = new JdbcTemplate(primary).queryForObject(PRIMARY_LSN_SQL, Long.class);
+            primarySamples.addLast(new WalSample(now, lsn));
+        } catch (RuntimeException ex) {
+            log.warn("Could not read the WAL position of the primary: {}", ex.getMessage());
+            return false;
+        }
+
+        // Keeps the newest sample older than the bound, so a lag past the bound is still measured as such.
+        var horizon = now - maxLag.toNanos();
+        while (primarySamples.size() > 1) {
+            var oldest = primarySamples.removeFirst();
+            if (primarySamples.getFirst().atNanos >= horizon) {
+                primarySamples.addFirst(oldest);
+                break;
+            }
+        }
+        return true;
+    }
+
+    private long replayLagMillis(Replica replica, long now) {
+        Long replayed;
+        try {
+            replayed = new JdbcTemplate(replica.pool).queryForObject(REPLAY_LSN_SQL, Long.class);
+        } catch (RuntimeException ex) {
+            log.warn("Could not read the replay position of {}: {}", replica.pool.getPoolName(), ex.getMessage());
+            return -1;
+        }
+        if (replayed == null) {
+            return -1;
+        }
+
+        // Missing writes older than every kept sample: the lag is at least the span of the samples,
+        // and unknown until that span reaches the bound, e.g. right after startup.
+        var oldest = primarySamples.getFirst();
+        if (oldest.lsn > replayed) {
+            var span = now - oldest.atNanos;
+            return span >= maxLag.toNanos() ? Duration.ofNanos(span).toMillis() : -1;
+        }
+
+        // Otherwise the first sample past the replayed position dates the oldest write the replica is missing.
+        for (var sample : primarySamples) {
+            if (sample.lsn > replayed) {
+                return Duration.ofNanos(now - sample.atNanos).toMillis();
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        replicas.forEach(replica -> replica.pool.close());
+    }
+
+    private record WalSample(long atNanos, long lsn) {}
+
+    private static final class Replica {
+        private final HikariDataSource pool;
+        private volatile long lagMillis = -1;
+
+        private Replica(HikariDataSource pool) {
+            this.pool = pool;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+class SchedulingConfig {
+}
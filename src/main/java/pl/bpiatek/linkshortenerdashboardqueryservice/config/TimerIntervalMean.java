@@ -0,0 +1,37 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Mean duration of the supplied timers over the interval since the previous call.
+ */
+class TimerIntervalMean {
+
+    private final Supplier<Collection<Timer>> timers;
+    private long lastCount;
+    private double lastNanos;
+
+    TimerIntervalMean(Supplier<Collection<Timer>> timers) {
+        this.timers = timers;
+    }
+
+    synchronized Duration next() {
+        var count = 0L;
+        var nanos = 0.0;
+        for (var timer : timers.get()) {
+            count += timer.count();
+            nanos += timer.totalTime(TimeUnit.NANOSECONDS);
+        }
+
+        var recorded = count - lastCount;
+        var mean = recorded > 0 ? (nanos - lastNanos) / recorded : 0;
+        lastCount = count;
+        lastNanos = nanos;
+        return Duration.ofNanos((long) mean);
+    }
+}
@@ -0,0 +1,58 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
+
+import java.util.List;
+
+class BatchEnrichedClickConsumer {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchEnrichedClickConsumer.class);
+    private final DashboardLinkRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final HotLinkDetector hotLinkDetector;
+    private final LinkDetailsCache linkDetailsCache;
+    private final LiveClickHub liveClickHub;
+    private final ClickWriteMetrics clickWriteMetrics;
+
+    BatchEnrichedClickConsumer(DashboardLinkRepository repository,
+                               TransactionTemplate transactionTemplate,
+                               HotLinkDetector hotLinkDetector,
+                               LinkDetailsCache linkDetailsCache,
+                               LiveClickHub liveClickHub,
+                               ClickWriteMetrics clickWriteMetrics) {
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.hotLinkDetector = hotLinkDetector;
+        this.linkDetailsCache = linkDetailsCache;
+        this.liveClickHub = liveClickHub;
+        this.clickWriteMetrics = clickWriteMetrics;
+    }
+
+    @KafkaListener(
+            id = "enriched-clicks",
+            idIsGroup = false,
+            topics = "${topic.analytics.enriched}",
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "linkEnrichedClickEventContainerFactory"
+    )
+    void consume(List<LinkClickEnrichedEvent> events,
+                 @Header(KafkaHeaders.RECEIVED_TIMESTAMP) List<Long> timestamps) {
+        var deltas = ClickDeltas.of(events, timestamps);
+        log.info("Received {} EnrichedClickEvents for {} links. Incrementing counters.",
+                deltas.events(), deltas.links().size());
+        hotLinkDetector.assignShards(deltas);
+
+        // The container commits the offsets of this poll only after the listener returns,
+        // i.e. after the transaction below has been committed.
+        clickWriteMetrics.record(deltas.events(), () ->
+                transactionTemplate.executeWithoutResult(status -> repository.applyClickDeltas(deltas)));
+        linkDetailsCache.markClicked(deltas.linkIds());
+        liveClickHub.publish(deltas);
+    }
+}
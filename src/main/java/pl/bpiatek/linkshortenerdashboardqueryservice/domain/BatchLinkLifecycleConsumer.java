@@ -0,0 +1,53 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.bpiatek.contracts.link.LinkLifecycleEventProto.LinkLifecycleEvent;
+
+import java.util.List;
+
+class BatchLinkLifecycleConsumer {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchLinkLifecycleConsumer.class);
+    private final DashboardLinkRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final LinkDetailsCache linkDetailsCache;
+
+    BatchLinkLifecycleConsumer(DashboardLinkRepository repository,
+                               TransactionTemplate transactionTemplate,
+                               LinkDetailsCache linkDetailsCache) {
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.linkDetailsCache = linkDetailsCache;
+    }
+
+    @KafkaListener(
+            topics = "${topic.link.lifecycle}",
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "linkLifecycleEventsContainerFactory"
+    )
+    void consume(List<LinkLifecycleEvent> events) {
+        // Events of a link share a partition, so the poll holds them in the order they were produced.
+        var changes = new LinkLifecycleChanges();
+        for (var event : events) {
+            switch (event.getEventPayloadCase()) {
+                case LINK_CREATED -> changes.created(LinkLifecycleConsumer.toDashboardLink(event.getLinkCreated()));
+                case LINK_UPDATED -> changes.updated(LinkLifecycleConsumer.toDashboardLink(event.getLinkUpdated()));
+                case LINK_DELETED -> changes.deleted(event.getLinkDeleted().getLinkId());
+                case EVENTPAYLOAD_NOT_SET -> log.warn("Received LinkLifecycleEvent with no payload set.");
+                default -> log.warn("Received unknown event type in LinkLifecycleEvent: {}", event.getEventPayloadCase());
+            }
+        }
+
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        log.info("Received {} LinkLifecycleEvents for {} links. Applying net changes.",
+                changes.events(), changes.linkIds().size());
+        transactionTemplate.executeWithoutResult(status -> repository.applyLifecycleChanges(changes));
+        changes.linkIds().forEach(linkDetailsCache::invalidate);
+    }
+}
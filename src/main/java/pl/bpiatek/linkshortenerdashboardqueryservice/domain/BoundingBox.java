@@ -0,0 +1,17 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+/**
+ * Map viewport in degrees. A box whose west edge lies east of its east edge spans the antimeridian.
+ */
+public record BoundingBox(double west, double south, double east, double north) {
+
+    public boolean isValid() {
+        return Math.abs(west) <= 180 && Math.abs(east) <= 180
+                && Math.abs(south) <= 90 && Math.abs(north) <= 90
+                && south <= north;
+    }
+
+    boolean crossesAntimeridian() {
+        return west > east;
+    }
+}
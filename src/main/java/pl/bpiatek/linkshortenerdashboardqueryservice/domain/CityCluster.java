@@ -0,0 +1,4 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+// Country and city are only set when the cluster holds a single city.
+record CityCluster(Double latitude, Double longitude, long clicks, int cities, String countryCode, String cityName) {}
@@ -0,0 +1,114 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Streams aggregated city deltas into dashboard_link_city_stats_staging over the COPY protocol.
+ * The COPY and the merge run in one transaction, joining the caller's or opening one for the record and parallel
+ * modes, which write without any: the staged rows are visible to the merge and never outlive a failed one.
+ */
+class CityStatsCopyWriter {
+
+    private static final String COPY_SQL = """
+            COPY dashboard_link_city_stats_staging (
+                batch_id, link_id, country_code, city_name, latitude, longitude, clicks
+            ) FROM STDIN WITH (FORMAT csv)""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int flushRows;
+    private final Timer copyTimer;
+    private final Counter copiedRows;
+
+    CityStatsCopyWriter(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, MeterRegistry meterRegistry,
+                        int flushRows) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.flushRows = flushRows;
+        this.copyTimer = Timer.builder("dashboard.clicks.city-stats.copy")
+                .description("Time taken to stream city deltas into the staging table")
+                .register(meterRegistry);
+        this.copiedRows = Counter.builder("dashboard.clicks.city-stats.copy.rows")
+                .description("Number of city delta rows streamed into the staging table")
+                .register(meterRegistry);
+    }
+
+    void stageAndMerge(Collection<ClickDeltas.CityDelta> cities, Consumer<UUID> merge) {
+        transactionTemplate.executeWithoutResult(status -> merge.accept(stage(cities)));
+    }
+
+    private UUID stage(Collection<ClickDeltas.CityDelta> cities) {
+        var batchId = UUID.randomUUID();
+        copyTimer.record(() -> jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            var copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+            try {
+                var buffer = new StringBuilder();
+                var buffered = 0;
+                for (var city : cities) {
+                    appendRow(buffer, batchId, city);
+                    if (++buffered == flushRows) {
+                        write(copyIn, buffer);
+                        buffered = 0;
+                    }
+                }
+                write(copyIn, buffer);
+                return copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        }));
+        copiedRows.increment(cities.size());
+        return batchId;
+    }
+
+    private static void appendRow(StringBuilder buffer, UUID batchId, ClickDeltas.CityDelta city) {
+        buffer.append(batchId).append(',');
+        appendText(buffer, city.linkId());
+        buffer.append(',');
+        appendText(buffer, city.countryCode());
+        buffer.append(',');
+        appendText(buffer, city.cityName());
+        buffer.append(',');
+        appendNumber(buffer, city.latitude());
+        buffer.append(',');
+        appendNumber(buffer, city.longitude());
+        buffer.append(',').append(city.clicks()).append('\n');
+    }
+
+    // Quoted, so an empty string stays distinct from NULL, which CSV writes as an unquoted empty field.
+    private static void appendText(StringBuilder buffer, String value) {
+        if (value != null) {
+            buffer.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+    }
+
+    private static void appendNumber(StringBuilder buffer, Double value) {
+        if (value != null) {
+            buffer.append(value);
+        }
+    }
+
+    private static void write(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        var bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+}
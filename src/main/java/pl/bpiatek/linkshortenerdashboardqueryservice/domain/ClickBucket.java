@@ -0,0 +1,9 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import java.time.Instant;
+
+record ClickBucket(
+        Instant bucketStart,
+        long clicks,
+        String clicksByCountry
+) {}
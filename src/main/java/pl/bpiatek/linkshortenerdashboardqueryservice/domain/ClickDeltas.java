@@ -0,0 +1,251 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class ClickDeltas {
+
+    private final Map<String, LinkDelta> links = new HashMap<>();
+    private final Map<CityKey, CityDelta> cities = new HashMap<>();
+    private final Map<BucketKey, HourlyDelta> hourlyBuckets = new HashMap<>();
+    private int events;
+
+    static ClickDeltas of(List<LinkClickEnrichedEvent> events, List<Long> timestamps) {
+        var deltas = new ClickDeltas();
+        for (int i = 0; i < events.size(); i++) {
+            deltas.add(events.get(i), Instant.ofEpochMilli(timestamps.get(i)));
+        }
+        return deltas;
+    }
+
+    void add(LinkClickEnrichedEvent event, Instant clickedAt) {
+        events++;
+        var link = addClick(event.getLinkId(), event.getCountryCode(), event.getDeviceType(), event.getOsName());
+
+        var bucketKey = new BucketKey(event.getLinkId(), clickedAt.truncatedTo(ChronoUnit.HOURS));
+        hourlyBuckets.computeIfAbsent(bucketKey, key -> new HourlyDelta(key, link))
+                .increment(event.getCountryCode());
+
+        var cityKey = new CityKey(event.getLinkId(), event.getCountryCode(), event.getCityName());
+        cities.computeIfAbsent(cityKey, key -> new CityDelta(key, latitude(event.getCityLatitude()),
+                        longitude(event.getCityLongitude())))
+                .increment();
+    }
+
+    static Double latitude(String value) {
+        return coordinate(value, 90);
+    }
+
+    static Double longitude(String value) {
+        return coordinate(value, 180);
+    }
+
+    // Anything that is not a coordinate is stored as NULL, which keeps the city off the map.
+    private static Double coordinate(String value, double bound) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            var coordinate = Double.parseDouble(value.trim());
+            return Math.abs(coordinate) <= bound ? coordinate : null;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    LinkDelta addClick(String linkId, String countryCode, String deviceType, String osName) {
+        var link = links.computeIfAbsent(linkId, LinkDelta::new);
+        link.increment(countryCode, deviceType, osName);
+        return link;
+    }
+
+    void addAll(ClickDeltas other) {
+        events += other.events;
+        other.links.forEach((linkId, delta) -> links.computeIfAbsent(linkId, LinkDelta::new).merge(delta));
+        other.cities.forEach((cityKey, delta) ->
+                cities.computeIfAbsent(cityKey, key -> new CityDelta(key, delta.latitude, delta.longitude))
+                        .merge(delta));
+        other.hourlyBuckets.forEach((bucketKey, delta) ->
+                hourlyBuckets.computeIfAbsent(bucketKey, key -> new HourlyDelta(key, links.get(key.linkId())))
+                        .merge(delta));
+    }
+
+    Collection<LinkDelta> links() {
+        return links.values();
+    }
+
+    Collection<String> linkIds() {
+        return links.keySet();
+    }
+
+    Collection<CityDelta> cities() {
+        return cities.values();
+    }
+
+    Collection<HourlyDelta> hourlyBuckets() {
+        return hourlyBuckets.values();
+    }
+
+    int events() {
+        return events;
+    }
+
+    boolean isEmpty() {
+        return events == 0;
+    }
+
+    static final class LinkDelta {
+        private final String linkId;
+        private final Map<String, Long> clicksByCountry = new HashMap<>();
+        private final Map<String, Long> clicksByDevice = new HashMap<>();
+        private final Map<String, Long> clicksByOs = new HashMap<>();
+        private long totalClicks;
+        private int shard;
+
+        private LinkDelta(String linkId) {
+            this.linkId = linkId;
+        }
+
+        private void increment(String countryCode, String deviceType, String osName) {
+            totalClicks++;
+            clicksByCountry.merge(countryCode, 1L, Long::sum);
+            clicksByDevice.merge(deviceType, 1L, Long::sum);
+            clicksByOs.merge(osName, 1L, Long::sum);
+        }
+
+        private void merge(LinkDelta other) {
+            totalClicks += other.totalClicks;
+            other.clicksByCountry.forEach((key, clicks) -> clicksByCountry.merge(key, clicks, Long::sum));
+            other.clicksByDevice.forEach((key, clicks) -> clicksByDevice.merge(key, clicks, Long::sum));
+            other.clicksByOs.forEach((key, clicks) -> clicksByOs.merge(key, clicks, Long::sum));
+        }
+
+        void assignShard(int shard) {
+            this.shard = shard;
+        }
+
+        String linkId() {
+            return linkId;
+        }
+
+        int shard() {
+            return shard;
+        }
+
+        long totalClicks() {
+            return totalClicks;
+        }
+
+        Map<String, Long> clicksByCountry() {
+            return clicksByCountry;
+        }
+
+        Map<String, Long> clicksByDevice() {
+            return clicksByDevice;
+        }
+
+        Map<String, Long> clicksByOs() {
+            return clicksByOs;
+        }
+    }
+
+    static final class CityDelta {
+        private final CityKey key;
+        private final Double latitude;
+        private final Double longitude;
+        private long clicks;
+
+        private CityDelta(CityKey key, Double latitude, Double longitude) {
+            this.key = key;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        private void increment() {
+            clicks++;
+        }
+
+        private void merge(CityDelta other) {
+            clicks += other.clicks;
+        }
+
+        String linkId() {
+            return key.linkId();
+        }
+
+        String countryCode() {
+            return key.countryCode();
+        }
+
+        String cityName() {
+            return key.cityName();
+        }
+
+        Double latitude() {
+            return latitude;
+        }
+
+        Double longitude() {
+            return longitude;
+        }
+
+        long clicks() {
+            return clicks;
+        }
+    }
+
+    static final class HourlyDelta {
+        private final BucketKey key;
+        private final LinkDelta link;
+        private final Map<String, Long> clicksByCountry = new HashMap<>();
+        private long clicks;
+
+        private HourlyDelta(BucketKey key, LinkDelta link) {
+            this.key = key;
+            this.link = link;
+        }
+
+        private void increment(String countryCode) {
+            clicks++;
+            clicksByCountry.merge(countryCode, 1L, Long::sum);
+        }
+
+        private void merge(HourlyDelta other) {
+            clicks += other.clicks;
+            other.clicksByCountry.forEach((key, count) -> clicksByCountry.merge(key, count, Long::sum));
+        }
+
+        String linkId() {
+            return key.linkId();
+        }
+
+        Instant bucketStart() {
+            return key.bucketStart();
+        }
+
+        // Buckets of hot links are sharded like their counters.
+        int shard() {
+            return link.shard();
+        }
+
+        long clicks() {
+            return clicks;
+        }
+
+        Map<String, Long> clicksByCountry() {
+            return clicksByCountry;
+        }
+    }
+
+    private record BucketKey(String linkId, Instant bucketStart) {
+    }
+
+    private record CityKey(String linkId, String countryCode, String cityName) {
+    }
+}
@@ -0,0 +1,59 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Folds hourly click buckets older than the retention window into daily buckets.
+ * Runs in small batches, each its own statement, so it never holds locks on many rows at once.
+ */
+class ClickTimeSeriesCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(ClickTimeSeriesCompactor.class);
+
+    private final DashboardLinkRepository repository;
+    private final Clock clock;
+    private final Duration hourlyRetention;
+    private final int batchSize;
+
+    ClickTimeSeriesCompactor(DashboardLinkRepository repository, Clock clock, Duration hourlyRetention, int batchSize) {
+        this.repository = repository;
+        this.clock = clock;
+        this.hourlyRetention = hourlyRetention;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(
+            initialDelayString = "${dashboard.clicks.timeseries.compaction-interval-ms:3600000}",
+            fixedDelayString = "${dashboard.clicks.timeseries.compaction-interval-ms:3600000}")
+    void scheduledCompaction() {
+        try {
+            compact();
+        } catch (RuntimeException ex) {
+            log.error("Failed to compact hourly click buckets. Will retry on next run.", ex);
+        }
+    }
+
+    int compact() {
+        // Only whole days are compacted, so a day is served either from hourly or from daily
+        // buckets, apart from late clicks which the next run moves over.
+        var before = clock.instant().minus(hourlyRetention).truncatedTo(ChronoUnit.DAYS);
+
+        var total = 0;
+        int moved;
+        do {
+            moved = repository.compactHourlyClicks(before, batchSize);
+            total += moved;
+        } while (moved == batchSize);
+
+        if (total > 0) {
+            log.info("Compacted {} hourly click buckets older than {} into daily buckets.", total, before);
+        }
+        return total;
+    }
+}
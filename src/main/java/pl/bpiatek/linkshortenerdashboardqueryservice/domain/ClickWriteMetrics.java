@@ -0,0 +1,31 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Commit latency of click writes and the number of events each write carried, tagged with the ingest mode,
+ * so per-event write cost can be compared across modes and releases.
+ */
+class ClickWriteMetrics {
+
+    private final Timer writeTimer;
+    private final DistributionSummary writeEvents;
+
+    ClickWriteMetrics(MeterRegistry meterRegistry, String ingestMode) {
+        this.writeTimer = Timer.builder("dashboard.clicks.write")
+                .description("Time taken to write and commit click deltas")
+                .tag("mode", ingestMode)
+                .register(meterRegistry);
+        this.writeEvents = DistributionSummary.builder("dashboard.clicks.write.events")
+                .description("Number of click events applied by a single write")
+                .tag("mode", ingestMode)
+                .register(meterRegistry);
+    }
+
+    void record(int events, Runnable write) {
+        writeTimer.record(write);
+        writeEvents.record(events);
+    }
+}
@@ -1,32 +1,203 @@
 package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
 
 @Configuration
 class DashboardConfig {
 
     @Bean
-    EnrichedClickConsumer enrichedClickConsumer(DashboardLinkRepository dashboardLinkRepository) {
-        return new EnrichedClickConsumer(dashboardLinkRepository);
+    @ConditionalOnProperty(name = "dashboard.clicks.ingest-mode", havingValue = "record")
+    EnrichedClickConsumer enrichedClickConsumer(DashboardLinkRepository dashboardLinkRepository,
+                                                HotLinkDetector hotLinkDetector,
+                                                LinkDetailsCache linkDetailsCache,
+                                                LiveClickHub liveClickHub,
+                                                MeterRegistry meterRegistry) {
+        return new EnrichedClickConsumer(dashboardLinkRepository, hotLinkDetector, linkDetailsCache, liveClickHub,
+                new ClickWriteMetrics(meterRegistry, "record"));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dashboard.clicks.ingest-mode", havingValue = "batch", matchIfMissing = true)
+    BatchEnrichedClickConsumer batchEnrichedClickConsumer(DashboardLinkRepository dashboardLinkRepository,
+                                                          TransactionTemplate transactionTemplate,
+                                                          HotLinkDetector hotLinkDetector,
+                                                          LinkDetailsCache linkDetailsCache,
+                                                          LiveClickHub liveClickHub,
+                                                          MeterRegistry meterRegistry) {
+        return new BatchEnrichedClickConsumer(dashboardLinkRepository, transactionTemplate, hotLinkDetector,
+                linkDetailsCache, liveClickHub, new ClickWriteMetrics(meterRegistry, "batch"));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dashboard.clicks.ingest-mode", havingValue = "write-behind")
+    WriteBehindClickAccumulator writeBehindClickAccumulator(
+            DashboardLinkRepository dashboardLinkRepository,
+            TransactionTemplate transactionTemplate,
+            HotLinkDetector hotLinkDetector,
+            LinkDetailsCache linkDetailsCache,
+            LiveClickHub liveClickHub,
+            MeterRegistry meterRegistry,
+            @Value("${dashboard.clicks.write-behind.stripes:16}") int stripes,
+            @Value("${dashboard.clicks.write-behind.max-pending-events:10000}") int maxPendingEvents) {
+        return new WriteBehindClickAccumulator(dashboardLinkRepository, transactionTemplate, hotLinkDetector,
+                linkDetailsCache, liveClickHub, meterRegistry, stripes, maxPendingEvents);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dashboard.clicks.ingest-mode", havingValue = "write-behind")
+    WriteBehindClickConsumer writeBehindClickConsumer(WriteBehindClickAccumulator writeBehindClickAccumulator) {
+        return new WriteBehindClickConsumer(writeBehindClickAccumulator);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dashboard.clicks.ingest-mode", havingValue = "parallel")
+    ParallelEnrichedClickConsumer parallelEnrichedClickConsumer(
+            DashboardLinkRepository dashboardLinkRepository,
+            HotLinkDetector hotLinkDetector,
+            LinkDetailsCache linkDetailsCache,
+            LiveClickHub liveClickHub,
+            MeterRegistry meterRegistry,
+            @Value("${dashboard.clicks.parallel.max-in-flight:1000}") int maxInFlight,
+            @Value("${dashboard.clicks.parallel.max-attempts:10}") int maxAttempts,
+            @Value("${dashboard.clicks.parallel.retry-backoff:1s}") Duration retryBackoff,
+            @Value("${dashboard.clicks.parallel.revoke-timeout:30s}") Duration revokeTimeout) {
+        return new ParallelEnrichedClickConsumer(dashboardLinkRepository, hotLinkDetector, linkDetailsCache,
+                liveClickHub, new ClickWriteMetrics(meterRegistry, "parallel"), meterRegistry, maxInFlight, maxAttempts,
+                retryBackoff, revokeTimeout);
+    }
+
+    @Bean
+    HotLinkDetector hotLinkDetector(
+            Clock clock,
+            @Value("${dashboard.clicks.sharding.shards:8}") int shards,
+            @Value("${dashboard.clicks.sharding.hot-clicks-per-second:50}") double hotClicksPerSecond,
+            @Value("${dashboard.clicks.sharding.window:10s}") Duration window,
+            @Value("${dashboard.clicks.sharding.promotion:10m}") Duration promotion) {
+        return new HotLinkDetector(clock, shards, hotClicksPerSecond, window, promotion);
+    }
+
+    @Bean
+    @Primary
+    DashboardLinkRepository dashboardLinkRepository(
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            ObjectMapper objectMapper,
+            @Value("${dashboard.clicks.dimension-storage:DUAL}") DimensionStorage dimensionStorage,
+            @Value("${dashboard.clicks.city-stats.write-mode:upsert}") String cityStatsWriteMode,
+            @Value("${dashboard.clicks.city-stats.copy.flush-rows:1000}") int cityStatsCopyFlushRows,
+            MeterRegistry meterRegistry) {
+        var cityStatsCopyWriter = "copy".equalsIgnoreCase(cityStatsWriteMode)
+                ? new CityStatsCopyWriter(jdbcTemplate, transactionTemplate, meterRegistry, cityStatsCopyFlushRows)
+                : null;
+        return new JdbcDashboardLinkRepository(jdbcTemplate, objectMapper, dimensionStorage, cityStatsCopyWriter);
+    }
+
+    // Serves dashboard reads from the query pool, so they do not queue behind ingest writes for connections.
+    @Bean
+    DashboardLinkRepository queryDashboardLinkRepository(
+            @Qualifier("queryJdbcTemplate") JdbcTemplate queryJdbcTemplate,
+            ObjectMapper objectMapper,
+            @Value("${dashboard.clicks.dimension-storage:DUAL}") DimensionStorage dimensionStorage) {
+        return new JdbcDashboardLinkRepository(queryJdbcTemplate, objectMapper, dimensionStorage, null);
+    }
+
+    @Bean
+    ClickTimeSeriesCompactor clickTimeSeriesCompactor(
+            DashboardLinkRepository dashboardLinkRepository,
+            Clock clock,
+            @Value("${dashboard.clicks.timeseries.hourly-retention:7d}") Duration hourlyRetention,
+            @Value("${dashboard.clicks.timeseries.compaction-batch-size:5000}") int batchSize) {
+        return new ClickTimeSeriesCompactor(dashboardLinkRepository, clock, hourlyRetention, batchSize);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dashboard.user-link-stats.reconciliation.enabled", havingValue = "true", matchIfMissing = true)
+    UserLinkStatsReconciler userLinkStatsReconciler(
+            DashboardLinkRepository dashboardLinkRepository,
+            TransactionTemplate transactionTemplate,
+            @Value("${dashboard.user-link-stats.reconciliation.batch-size:500}") int batchSize) {
+        return new UserLinkStatsReconciler(dashboardLinkRepository, transactionTemplate, batchSize);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dashboard.lifecycle.ingest-mode", havingValue = "batch", matchIfMissing = true)
+    BatchLinkLifecycleConsumer batchLinkLifecycleConsumer(DashboardLinkRepository dashboardLinkRepository,
+                                                          TransactionTemplate transactionTemplate,
+                                                          LinkDetailsCache linkDetailsCache) {
+        return new BatchLinkLifecycleConsumer(dashboardLinkRepository, transactionTemplate, linkDetailsCache);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dashboard.lifecycle.ingest-mode", havingValue = "record")
+    LinkLifecycleConsumer linkLifecycleConsumer(DashboardLinkRepository dashboardLinkRepository,
+                                                LinkDetailsCache linkDetailsCache) {
+        return new LinkLifecycleConsumer(dashboardLinkRepository, linkDetailsCache);
+    }
+
+    @Bean
+    LinkDetailsCache linkDetailsCache(
+            MeterRegistry meterRegistry,
+            @Value("${dashboard.link-details-cache.max-weight-bytes:67108864}") long maxWeightBytes,
+            @Value("${dashboard.link-details-cache.ttl:30s}") Duration ttl,
+            @Value("${dashboard.link-details-cache.click-staleness:2s}") Duration clickStaleness) {
+        return new LinkDetailsCache(meterRegistry, maxWeightBytes, ttl, clickStaleness);
+    }
+
+    // Reads totals from the primary right after the writes that moved them, so it uses the ingest repository.
+    @Bean
+    LiveClickHub liveClickHub(
+            DashboardLinkRepository dashboardLinkRepository,
+            MeterRegistry meterRegistry,
+            @Value("${dashboard.live.max-connections:20000}") int maxConnections,
+            @Value("${dashboard.live.max-pending-links:1000}") int maxPendingLinks,
+            @Value("${dashboard.live.emitter-timeout:30m}") Duration emitterTimeout) {
+        return new LiveClickHub(dashboardLinkRepository, meterRegistry, maxConnections, maxPendingLinks,
+                emitterTimeout);
     }
 
     @Bean
-    DashboardLinkRepository dashboardLinkRepository(JdbcTemplate jdbcTemplate) {
-        return new JdbcDashboardLinkRepository(jdbcTemplate);
+    DashboardFacade dashboardFacade(@Qualifier("queryDashboardLinkRepository") DashboardLinkRepository dashboardLinkRepository,
+                                    DashboardLinkDetailsDtoMapper dashboardLinkDetailsDtoMapper,
+                                    LinkDetailsCache linkDetailsCache,
+                                    LinkExporter linkExporter,
+                                    LiveClickHub liveClickHub,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${dashboard.reads.single-flight.timeout:5s}") Duration singleFlightTimeout) {
+        return new DashboardFacade(dashboardLinkRepository, dashboardLinkDetailsDtoMapper, linkDetailsCache,
+                linkExporter, liveClickHub, meterRegistry, singleFlightTimeout);
     }
 
+    // Streams from the export pool, so slow downloads cannot take the connections of dashboard reads.
     @Bean
-    LinkLifecycleConsumer linkLifecycleConsumer(DashboardLinkRepository dashboardLinkRepository) {
-        return new LinkLifecycleConsumer(dashboardLinkRepository);
+    DashboardLinkRepository exportDashboardLinkRepository(
+            @Qualifier("exportJdbcTemplate") JdbcTemplate exportJdbcTemplate,
+            ObjectMapper objectMapper,
+            @Value("${dashboard.clicks.dimension-storage:DUAL}") DimensionStorage dimensionStorage) {
+        return new JdbcDashboardLinkRepository(exportJdbcTemplate, objectMapper, dimensionStorage, null);
     }
 
     @Bean
-    DashboardFacade dashboardFacade(DashboardLinkRepository dashboardLinkRepository,
-                                    DashboardLinkDetailsDtoMapper dashboardLinkDetailsDtoMapper) {
-        return new DashboardFacade(dashboardLinkRepository, dashboardLinkDetailsDtoMapper);
+    LinkExporter linkExporter(@Qualifier("exportDashboardLinkRepository") DashboardLinkRepository dashboardLinkRepository,
+                              DashboardLinkDetailsDtoMapper dashboardLinkDetailsDtoMapper,
+                              ObjectMapper objectMapper,
+                              MeterRegistry meterRegistry,
+                              @Value("${dashboard.export.fetch-size:500}") int fetchSize,
+                              @Value("${dashboard.export.max-concurrent:4}") int maxConcurrent,
+                              @Value("${dashboard.export.timeout:2h}") Duration timeout) {
+        return new LinkExporter(dashboardLinkRepository, dashboardLinkDetailsDtoMapper, objectMapper, meterRegistry,
+                fetchSize, maxConcurrent, timeout);
     }
 
     @Bean
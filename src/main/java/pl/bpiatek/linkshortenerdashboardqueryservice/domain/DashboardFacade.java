@@ -1,13 +1,26 @@
 package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.ClickTimeSeriesResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.CursorPagedResponse;
 import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinkDetailsResponse;
 import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinksResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.LinkCitiesResponse;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 public class DashboardFacade {
 
@@ -15,18 +28,75 @@ public class DashboardFacade {
 
     private final DashboardLinkRepository dashboardLinkRepository;
     private final DashboardLinkDetailsDtoMapper dashboardLinkDetailsDtoMapper;
+    private final LinkDetailsCache linkDetailsCache;
+    private final LinkExporter linkExporter;
+    private final LiveClickHub liveClickHub;
+    private final Timer linksReadTimer;
+    private final Timer linkReadTimer;
+    private final Timer linksBatchReadTimer;
+    private final Timer timeSeriesReadTimer;
+    private final Timer citiesReadTimer;
+    private final Timer linkVersionReadTimer;
+    private final SingleFlight<LinksPageKey, Page<DashboardLink>> linksPageFlight;
+    private final SingleFlight<LinksSeekKey, List<DashboardLink>> linksSeekFlight;
+    private final SingleFlight<LinkKey, Optional<DashboardLinkDetails>> linkFlight;
 
     DashboardFacade(DashboardLinkRepository dashboardLinkRepository,
-                    DashboardLinkDetailsDtoMapper dashboardLinkDetailsDtoMapper) {
+                    DashboardLinkDetailsDtoMapper dashboardLinkDetailsDtoMapper,
+                    LinkDetailsCache linkDetailsCache,
+                    LinkExporter linkExporter,
+                    LiveClickHub liveClickHub,
+                    MeterRegistry meterRegistry,
+                    Duration singleFlightTimeout) {
         this.dashboardLinkRepository = dashboardLinkRepository;
         this.dashboardLinkDetailsDtoMapper = dashboardLinkDetailsDtoMapper;
+        this.linkDetailsCache = linkDetailsCache;
+        this.linkExporter = linkExporter;
+        this.liveClickHub = liveClickHub;
+        this.linksReadTimer = readTimer(meterRegistry, "links");
+        this.linkReadTimer = readTimer(meterRegistry, "link");
+        this.linksBatchReadTimer = readTimer(meterRegistry, "links-batch");
+        this.timeSeriesReadTimer = readTimer(meterRegistry, "timeseries");
+        this.citiesReadTimer = readTimer(meterRegistry, "cities");
+        this.linkVersionReadTimer = readTimer(meterRegistry, "link-version");
+        this.linksPageFlight = new SingleFlight<>(meterRegistry, "links", singleFlightTimeout);
+        this.linksSeekFlight = new SingleFlight<>(meterRegistry, "links-seek", singleFlightTimeout);
+        this.linkFlight = new SingleFlight<>(meterRegistry, "link", singleFlightTimeout);
+    }
+
+    private record LinksPageKey(String userId, Pageable pageable) {}
+
+    private record LinksSeekKey(String userId, LinkCursor cursor, int limit) {}
+
+    private record LinkKey(String userId, String linkId) {}
+
+    private static Timer readTimer(MeterRegistry meterRegistry, String query) {
+        return Timer.builder("dashboard.reads")
+                .description("Time taken by dashboard reads from the database")
+                .tag("query", query)
+                .register(meterRegistry);
     }
 
     public Page<DashboardLinksResponse> getUserLinks(String userId, Pageable pageable) {
-        return dashboardLinkRepository.findByUserId(userId, pageable)
+        return linksPageFlight.execute(new LinksPageKey(userId, pageable),
+                        () -> linksReadTimer.record(() -> dashboardLinkRepository.findByUserId(userId, pageable)))
                 .map(this::toDto);
     }
 
+    public CursorPagedResponse<DashboardLinksResponse> getUserLinks(String userId, String cursor, Pageable pageable) {
+        var position = cursor.isBlank() ? LinkCursor.first(pageable.getSort()) : LinkCursor.decode(cursor);
+        var size = pageable.getPageSize();
+
+        // One extra row tells whether there is a next page without counting.
+        var links = linksSeekFlight.execute(new LinksSeekKey(userId, position, size + 1),
+                () -> linksReadTimer.record(() -> dashboardLinkRepository.findByUserIdAfter(userId, position, size + 1)));
+        var hasNext = links.size() > size;
+        var content = hasNext ? links.subList(0, size) : links;
+        var nextCursor = hasNext ? position.after(content.getLast()).encode() : null;
+
+        return new CursorPagedResponse<>(content.stream().map(this::toDto).toList(), size, nextCursor);
+    }
+
     private DashboardLinksResponse toDto(DashboardLink entity) {
         return new DashboardLinksResponse(
                 entity.id(),
@@ -43,7 +113,72 @@ public class DashboardFacade {
     }
 
     public Optional<DashboardLinkDetailsResponse> getLink(String userId, String linkId) {
-        return dashboardLinkRepository.getByLinkIdAndUser(userId, linkId)
+        return linkDetailsCache.get(userId, linkId, () -> linkFlight.execute(new LinkKey(userId, linkId),
+                        () -> linkReadTimer.record(() -> dashboardLinkRepository.getByLinkIdAndUser(userId, linkId)))
+                .map(dashboardLinkDetailsDtoMapper::toResponse));
+    }
+
+    // Cached links are answered from the cache, every miss is loaded by a single query. Links the user
+    // does not own or that do not exist are left out, the rest keep the requested order.
+    public List<DashboardLinkDetailsResponse> getLinks(String userId, List<String> linkIds) {
+        var found = new HashMap<String, DashboardLinkDetailsResponse>();
+        var misses = new LinkedHashSet<String>();
+        for (var linkId : linkIds) {
+            linkDetailsCache.peek(userId, linkId)
+                    .ifPresentOrElse(details -> found.put(linkId, details), () -> misses.add(linkId));
+        }
+
+        if (!misses.isEmpty()) {
+            var invalidationsBefore = linkDetailsCache.invalidations();
+            var loaded = linksBatchReadTimer.record(() -> dashboardLinkRepository.findByLinkIdsAndUser(userId, misses));
+            for (var details : loaded) {
+                var response = dashboardLinkDetailsDtoMapper.toResponse(details);
+                linkDetailsCache.putIfAbsentOrStale(userId, response, invalidationsBefore);
+                found.put(response.linkId(), response);
+            }
+        }
+
+        return linkIds.stream()
+                .distinct()
+                .map(found::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    public Optional<LinkVersion> getLinkVersion(String userId, String linkId) {
+        var cached = linkDetailsCache.peek(userId, linkId);
+        if (cached.isPresent()) {
+            return cached.map(LinkVersion::of);
+        }
+        return linkVersionReadTimer.record(() -> dashboardLinkRepository.findLinkVersion(userId, linkId));
+    }
+
+    // Not served from the link details cache: it holds full details, and trimming those here
+    // would redo the work this query leaves to the database.
+    public Optional<DashboardLinkDetailsResponse> getLink(String userId, String linkId, Set<LinkDimension> include,
+                                                          int topN) {
+        return linkReadTimer.record(() -> dashboardLinkRepository.getByLinkIdAndUser(userId, linkId, include, topN))
                 .map(dashboardLinkDetailsDtoMapper::toResponse);
     }
+
+    public Optional<ClickTimeSeriesResponse> getLinkTimeSeries(String userId, String linkId, Instant from, Instant to,
+                                                               TimeSeriesGranularity granularity) {
+        return timeSeriesReadTimer.record(() ->
+                        dashboardLinkRepository.findClickTimeSeries(userId, linkId, granularity.truncate(from), to, granularity))
+                .map(buckets -> dashboardLinkDetailsDtoMapper.toTimeSeriesResponse(linkId, granularity, buckets));
+    }
+
+    public Optional<LinkCitiesResponse> getLinkCities(String userId, String linkId, BoundingBox box, Integer zoom,
+                                                      int topN) {
+        return citiesReadTimer.record(() -> dashboardLinkRepository.findCityClusters(userId, linkId, box, zoom, topN))
+                .map(clusters -> dashboardLinkDetailsDtoMapper.toCitiesResponse(linkId, zoom, clusters));
+    }
+
+    public Optional<LinkExport> exportUserLinks(String userId, ExportFormat format, boolean includeDimensions) {
+        return linkExporter.tryExport(userId, format, includeDimensions);
+    }
+
+    public Optional<SseEmitter> streamClicks(String userId) {
+        return liveClickHub.subscribe(userId);
+    }
 }
@@ -1,16 +1,20 @@
 package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.ClickBucketResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.CityClusterResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.ClickTimeSeriesResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.LinkCitiesResponse;
 import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinkDetailsResponse;
 import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.MetricEntryResponse;
 
-import java.util.Comparator;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 class DashboardLinkDetailsDtoMapper {
 
+    private static final String OTHER_KEY = "other";
+
     private final ObjectMapper objectMapper;
 
     public DashboardLinkDetailsDtoMapper(ObjectMapper objectMapper) {
@@ -30,7 +34,67 @@ class DashboardLinkDetailsDtoMapper {
                 entity.totalClicks(),
                 toMetricList(entity.clicksByCountry()),
                 toMetricList(entity.clicksByDevice()),
-                toMetricList(entity.clicksByOs())
+                toMetricList(entity.clicksByOs()),
+                null
+        );
+    }
+
+    // Dimensions that were not requested stay null, so they are not mistaken for dimensions without clicks.
+    public DashboardLinkDetailsResponse toResponse(DashboardLinkTopDetails entity) {
+        var details = entity.details();
+        return new DashboardLinkDetailsResponse(
+                details.linkId(),
+                details.shortUrl(),
+                details.longUrl(),
+                details.title(),
+                details.isActive(),
+                details.createdAt(),
+                details.updatedAt(),
+                details.totalClicks(),
+                toMetricList(entity.dimensions().get(LinkDimension.COUNTRY)),
+                toMetricList(entity.dimensions().get(LinkDimension.DEVICE)),
+                toMetricList(entity.dimensions().get(LinkDimension.OS)),
+                toMetricList(entity.dimensions().get(LinkDimension.CITY))
+        );
+    }
+
+    private static List<MetricEntryResponse> toMetricList(List<DimensionClick> clicks) {
+        if (clicks == null) {
+            return null;
+        }
+
+        return clicks.stream()
+                .map(click -> new MetricEntryResponse(click.key() == null ? OTHER_KEY : click.key(), click.clicks()))
+                .toList();
+    }
+
+    public ClickTimeSeriesResponse toTimeSeriesResponse(String linkId, TimeSeriesGranularity granularity,
+                                                        List<ClickBucket> buckets) {
+        return new ClickTimeSeriesResponse(
+                linkId,
+                granularity.name(),
+                buckets.stream()
+                        .map(bucket -> new ClickBucketResponse(
+                                bucket.bucketStart(),
+                                bucket.clicks(),
+                                toMetricList(bucket.clicksByCountry())))
+                        .toList()
+        );
+    }
+
+    public LinkCitiesResponse toCitiesResponse(String linkId, Integer zoom, List<CityCluster> clusters) {
+        return new LinkCitiesResponse(
+                linkId,
+                zoom,
+                clusters.stream()
+                        .map(cluster -> new CityClusterResponse(
+                                cluster.latitude(),
+                                cluster.longitude(),
+                                cluster.clicks(),
+                                cluster.cities(),
+                                cluster.countryCode(),
+                                cluster.cityName()))
+                        .toList()
         );
     }
 
@@ -40,13 +104,8 @@ class DashboardLinkDetailsDtoMapper {
         }
 
         try {
-            Map<String, Long> map =
-                    objectMapper.readValue(json, new TypeReference<>() {});
-            return map.entrySet().stream()
-                    .map(e -> new MetricEntryResponse(e.getKey(), e.getValue()))
-                    .sorted(Comparator.comparing(MetricEntryResponse::value).reversed())
-                    .toList();
-        } catch (Exception ex) {
+            return MetricEntriesDecoder.decode(objectMapper.getFactory(), json);
+        } catch (IOException ex) {
             throw new IllegalStateException("Invalid JSONB metric data", ex);
         }
     }
@@ -3,14 +3,34 @@ package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 interface DashboardLinkRepository {
     void create(DashboardLink link);
     void update(DashboardLink link);
     void delete(String linkId);
+    void applyLifecycleChanges(LinkLifecycleChanges changes);
     void incrementClickCounters(String linkId, String countryCode, String deviceType, String osName);
     Page<DashboardLink> findByUserId(String userId, Pageable pageable);
+    List<DashboardLink> findByUserIdAfter(String userId, LinkCursor cursor, int limit);
     Optional<DashboardLinkDetails> getByLinkIdAndUser(String userId, String linkId);
+    List<DashboardLinkDetails> findByLinkIdsAndUser(String userId, Collection<String> linkIds);
+    Optional<DashboardLinkTopDetails> getByLinkIdAndUser(String userId, String linkId, Set<LinkDimension> include, int topN);
+    Optional<LinkVersion> findLinkVersion(String userId, String linkId);
+    List<LinkClickTotal> findClickTotals(Collection<String> linkIds);
+    void streamByUserId(String userId, boolean withDimensions, int fetchSize, Consumer<DashboardLinkDetails> action);
     void incrementCityClicks(String linkId, String countryCode, String cityName, String latitude, String longitude);
+    void applyClickDeltas(ClickDeltas deltas);
+    Optional<List<ClickBucket>> findClickTimeSeries(String userId, String linkId, Instant from, Instant to,
+                                                    TimeSeriesGranularity granularity);
+    Optional<List<CityCluster>> findCityClusters(String userId, String linkId, BoundingBox box, Integer zoom,
+                                                 int limit);
+    int compactHourlyClicks(Instant before, int limit);
+    List<String> findUserIdsAfter(String afterUserId, int limit);
+    int reconcileUserLinkStats(List<String> userIds);
 }
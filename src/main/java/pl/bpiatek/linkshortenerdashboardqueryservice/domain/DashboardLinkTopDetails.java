@@ -0,0 +1,12 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Link details with only the requested dimensions, each ordered by clicks and cut to the top N in the database.
+ */
+record DashboardLinkTopDetails(
+        DashboardLinkDetails details,
+        Map<LinkDimension, List<DimensionClick>> dimensions
+) {}
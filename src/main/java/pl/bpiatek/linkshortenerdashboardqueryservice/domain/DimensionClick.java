@@ -0,0 +1,7 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+/**
+ * Clicks of one dimension key. A null key stands for the remainder beyond the requested top N.
+ */
+record DimensionClick(String key, long clicks) {
+}
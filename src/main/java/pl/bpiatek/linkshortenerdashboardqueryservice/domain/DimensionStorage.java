@@ -0,0 +1,33 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+/**
+ * Where the per-country/device/OS click counts are written to and read from.
+ * The migration path is JSONB -> DUAL (dual-write, backfilled by V8) -> NORMALIZED (cut-over).
+ */
+enum DimensionStorage {
+    JSONB(true, false, false),
+    DUAL(true, true, false),
+    NORMALIZED(false, true, true);
+
+    private final boolean writesJsonb;
+    private final boolean writesTable;
+    private final boolean readsTable;
+
+    DimensionStorage(boolean writesJsonb, boolean writesTable, boolean readsTable) {
+        this.writesJsonb = writesJsonb;
+        this.writesTable = writesTable;
+        this.readsTable = readsTable;
+    }
+
+    boolean writesJsonb() {
+        return writesJsonb;
+    }
+
+    boolean writesTable() {
+        return writesTable;
+    }
+
+    boolean readsTable() {
+        return readsTable;
+    }
+}
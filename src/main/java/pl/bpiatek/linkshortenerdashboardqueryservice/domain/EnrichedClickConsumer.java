@@ -3,37 +3,44 @@ package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
 import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
 
+import java.util.List;
+
 class EnrichedClickConsumer {
 
     private static final Logger log = LoggerFactory.getLogger(EnrichedClickConsumer.class);
     private final DashboardLinkRepository repository;
+    private final HotLinkDetector hotLinkDetector;
+    private final LinkDetailsCache linkDetailsCache;
+    private final LiveClickHub liveClickHub;
+    private final ClickWriteMetrics clickWriteMetrics;
 
-    EnrichedClickConsumer(DashboardLinkRepository repository) {
+    EnrichedClickConsumer(DashboardLinkRepository repository, HotLinkDetector hotLinkDetector,
+                          LinkDetailsCache linkDetailsCache, LiveClickHub liveClickHub,
+                          ClickWriteMetrics clickWriteMetrics) {
         this.repository = repository;
+        this.hotLinkDetector = hotLinkDetector;
+        this.linkDetailsCache = linkDetailsCache;
+        this.liveClickHub = liveClickHub;
+        this.clickWriteMetrics = clickWriteMetrics;
     }
 
     @KafkaListener(
+            id = "enriched-clicks",
+            idIsGroup = false,
             topics = "${topic.analytics.enriched}",
             groupId = "${spring.kafka.consumer.group-id}",
             containerFactory = "linkEnrichedClickEventContainerFactory"
     )
-    void consume(LinkClickEnrichedEvent event) {
+    void consume(LinkClickEnrichedEvent event, @Header(KafkaHeaders.RECEIVED_TIMESTAMP) long timestamp) {
         log.info("Received EnrichedClickEvent for link_id '{}'. Incrementing counters.", event.getLinkId());
-        repository.incrementClickCounters(
-                event.getLinkId(),
-                event.getCountryCode(),
-                event.getDeviceType(),
-                event.getOsName()
-        );
-
-        repository.incrementCityClicks(
-                event.getLinkId(),
-                event.getCountryCode(),
-                event.getCityName(),
-                event.getCityLatitude(),
-                event.getCityLongitude()
-        );
+        var deltas = ClickDeltas.of(List.of(event), List.of(timestamp));
+        hotLinkDetector.assignShards(deltas);
+        clickWriteMetrics.record(deltas.events(), () -> repository.applyClickDeltas(deltas));
+        linkDetailsCache.markClicked(List.of(event.getLinkId()));
+        liveClickHub.publish(deltas);
     }
 }
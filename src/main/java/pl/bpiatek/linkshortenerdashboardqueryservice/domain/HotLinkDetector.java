@@ -0,0 +1,79 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks the click rate of every link over fixed windows and promotes links whose rate crosses
+ * the threshold to sharded counters. Shard 0 holds the regular counters of every link.
+ */
+class HotLinkDetector {
+
+    private final Clock clock;
+    private final int shards;
+    private final double hotClicksPerSecond;
+    private final Duration window;
+    private final Duration promotion;
+
+    private final Map<String, LongAdder> windowClicks = new ConcurrentHashMap<>();
+    private final Map<String, Instant> hotUntil = new ConcurrentHashMap<>();
+    private final ReentrantLock rollLock = new ReentrantLock();
+    private volatile Instant windowStart;
+
+    HotLinkDetector(Clock clock, int shards, double hotClicksPerSecond, Duration window, Duration promotion) {
+        this.clock = clock;
+        this.shards = shards;
+        this.hotClicksPerSecond = hotClicksPerSecond;
+        this.window = window;
+        this.promotion = promotion;
+        this.windowStart = clock.instant();
+    }
+
+    void assignShards(ClickDeltas deltas) {
+        var now = clock.instant();
+        rollWindowIfElapsed(now);
+
+        // Writers are spread over shards by thread, so concurrent consumers never update the same row.
+        var shard = 1 + (int) Math.floorMod(Thread.currentThread().threadId(), (long) shards);
+        for (var link : deltas.links()) {
+            windowClicks.computeIfAbsent(link.linkId(), linkId -> new LongAdder()).add(link.totalClicks());
+
+            var promotedUntil = hotUntil.get(link.linkId());
+            if (promotedUntil != null && promotedUntil.isAfter(now)) {
+                link.assignShard(shard);
+            }
+        }
+    }
+
+    private void rollWindowIfElapsed(Instant now) {
+        var elapsed = Duration.between(windowStart, now);
+        if (elapsed.compareTo(window) < 0 || !rollLock.tryLock()) {
+            return;
+        }
+
+        try {
+            elapsed = Duration.between(windowStart, now);
+            if (elapsed.compareTo(window) < 0) {
+                return;
+            }
+
+            var seconds = Math.max(elapsed.toMillis(), 1) / 1000.0;
+            var promotedUntil = now.plus(promotion);
+            windowClicks.forEach((linkId, clicks) -> {
+                if (clicks.sum() / seconds >= hotClicksPerSecond) {
+                    hotUntil.put(linkId, promotedUntil);
+                }
+            });
+            hotUntil.values().removeIf(until -> !until.isAfter(now));
+            windowClicks.clear();
+            windowStart = now;
+        } finally {
+            rollLock.unlock();
+        }
+    }
+}
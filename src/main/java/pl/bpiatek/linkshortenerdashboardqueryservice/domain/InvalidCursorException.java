@@ -0,0 +1,13 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import java.io.Serial;
+
+public class InvalidCursorException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    InvalidCursorException(String cursor) {
+        super("Invalid pagination cursor: " + cursor);
+    }
+}
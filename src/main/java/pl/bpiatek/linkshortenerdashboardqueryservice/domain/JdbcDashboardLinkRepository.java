@@ -1,36 +1,125 @@
 package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 class JdbcDashboardLinkRepository implements DashboardLinkRepository {
 
     private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final DimensionStorage dimensionStorage;
+    // Null when city deltas are upserted straight from the statement parameters.
+    private final CityStatsCopyWriter cityStatsCopyWriter;
     private final DashboardLinkRowMapper rowMapper = new DashboardLinkRowMapper();
-    private static final Set<String> ALLOWED_SORT_COLUMNS = Set.of("created_at", "total_clicks", "title", "short_url");
+    // Sort expressions match the (user_id, <expression>, id) indexes, except total_clicks,
+    // which is summed over the counter shards and cannot be indexed.
+    private static final Map<String, String> SORT_EXPRESSIONS = Map.of(
+            "created_at", "dl.created_at",
+            "total_clicks", "COALESCE(counters.total_clicks, 0)",
+            "title", "COALESCE(dl.title, '')",
+            "short_url", "dl.short_url"
+    );
+    static final Set<String> ALLOWED_SORT_COLUMNS = SORT_EXPRESSIONS.keySet();
 
-    JdbcDashboardLinkRepository(JdbcTemplate jdbcTemplate) {
+    private static final String DIMENSION_JSONB_COLUMNS = """
+            counters.clicks_by_country,
+            counters.clicks_by_device,
+            counters.clicks_by_os""";
+
+    private static final String DIMENSION_TABLE_COLUMNS = """
+            (SELECT COALESCE(jsonb_object_agg(d.key, d.clicks), '{}') FROM (
+                SELECT key, SUM(clicks) AS clicks FROM dashboard_link_dimension_clicks
+                WHERE link_id = dl.link_id AND dimension = 'country' GROUP BY key) d) AS clicks_by_country,
+            (SELECT COALESCE(jsonb_object_agg(d.key, d.clicks), '{}') FROM (
+                SELECT key, SUM(clicks) AS clicks FROM dashboard_link_dimension_clicks
+                WHERE link_id = dl.link_id AND dimension = 'device' GROUP BY key) d) AS clicks_by_device,
+            (SELECT COALESCE(jsonb_object_agg(d.key, d.clicks), '{}') FROM (
+                SELECT key, SUM(clicks) AS clicks FROM dashboard_link_dimension_clicks
+                WHERE link_id = dl.link_id AND dimension = 'os' GROUP BY key) d) AS clicks_by_os""";
+
+    private static final int CITY_CLUSTER_CELLS_PER_TILE = 4;
+
+    // A city first seen without valid coordinates takes both of them from a later click, never one from each.
+    private static final String CITY_COORDINATES_BACKFILL = """
+            latitude = CASE WHEN dashboard_link_city_stats.location IS NULL
+                THEN EXCLUDED.latitude ELSE dashboard_link_city_stats.latitude END,
+            longitude = CASE WHEN dashboard_link_city_stats.location IS NULL
+                THEN EXCLUDED.longitude ELSE dashboard_link_city_stats.longitude END""";
+
+    private static final String JSONB_DIMENSION_AGGREGATES = """
+            ,
+                jsonb_add_counts_agg(c.clicks_by_country) AS clicks_by_country,
+                jsonb_add_counts_agg(c.clicks_by_device) AS clicks_by_device,
+                jsonb_add_counts_agg(c.clicks_by_os) AS clicks_by_os""";
+
+    // Ranks the keys of one dimension by clicks and folds everything past :topN into a single
+    // remainder row with a NULL key, ordered last, so only topN + 1 entries leave the database.
+    private static final String TOP_DIMENSION_JOIN = """
+
+        LEFT JOIN LATERAL (
+            SELECT array_agg(t.key ORDER BY t.rank) AS keys, array_agg(t.clicks ORDER BY t.rank) AS clicks
+            FROM (
+                SELECT CASE WHEN s.rank <= :topN THEN s.key END AS key,
+                       SUM(s.clicks)::bigint AS clicks,
+                       MIN(s.rank) AS rank
+                FROM (
+                    SELECT src.key, src.clicks, row_number() OVER (ORDER BY src.clicks DESC, src.key) AS rank
+                    FROM (%s) src
+                ) s
+                GROUP BY 1
+            ) t
+        ) top_%s ON true""";
+
+    JdbcDashboardLinkRepository(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper, DimensionStorage dimensionStorage,
+                                CityStatsCopyWriter cityStatsCopyWriter) {
         this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.objectMapper = objectMapper;
+        this.dimensionStorage = dimensionStorage;
+        this.cityStatsCopyWriter = cityStatsCopyWriter;
     }
 
 
     @Override
     public void create(DashboardLink link) {
+        // user_link_stats is only touched when the link row was actually inserted,
+        // so a redelivered LinkCreated event does not count the link twice.
         var sql = """
-            INSERT INTO dashboard_links (link_id, user_id, short_url, long_url, title, is_active, created_at, updated_at)
-            VALUES (:linkId, :userId, :shortUrl, :longUrl, :title, :isActive, :createdAt, :updatedAt)
-            ON CONFLICT (link_id) DO NOTHING
+            WITH inserted AS (
+                INSERT INTO dashboard_links (link_id, user_id, short_url, long_url, title, is_active, created_at, updated_at)
+                VALUES (:linkId, :userId, :shortUrl, :longUrl, :title, :isActive, :createdAt, :updatedAt)
+                ON CONFLICT (link_id) DO NOTHING
+                RETURNING user_id, is_active
+            )
+            INSERT INTO user_link_stats (user_id, link_count, active_link_count)
+            SELECT user_id, 1, CASE WHEN is_active THEN 1 ELSE 0 END FROM inserted
+            ON CONFLICT (user_id) DO UPDATE SET
+                link_count = user_link_stats.link_count + EXCLUDED.link_count,
+                active_link_count = user_link_stats.active_link_count + EXCLUDED.active_link_count
             """;
         namedJdbcTemplate.update(sql, toSqlInsertParams(link));
     }
@@ -38,12 +127,23 @@ class JdbcDashboardLinkRepository implements DashboardLinkRepository {
     @Override
     public void update(DashboardLink link) {
         var sql = """
-            UPDATE dashboard_links SET
-                long_url = :longUrl,
-                title = :title,
-                is_active = :isActive,
-                updated_at = :updatedAt
-            WHERE link_id = :linkId
+            WITH previous AS (
+                SELECT link_id, is_active FROM dashboard_links WHERE link_id = :linkId FOR UPDATE
+            ), updated AS (
+                UPDATE dashboard_links dl SET
+                    long_url = :longUrl,
+                    title = :title,
+                    is_active = :isActive,
+                    updated_at = :updatedAt
+                FROM previous
+                WHERE dl.link_id = previous.link_id
+                RETURNING dl.user_id, dl.is_active, previous.is_active AS was_active
+            )
+            UPDATE user_link_stats s SET
+                active_link_count = s.active_link_count + CASE WHEN u.is_active THEN 1 ELSE -1 END
+            FROM updated u
+            WHERE s.user_id = u.user_id
+              AND u.is_active <> u.was_active
             """;
 
         var params = new MapSqlParameterSource()
@@ -58,46 +158,195 @@ class JdbcDashboardLinkRepository implements DashboardLinkRepository {
 
     @Override
     public void delete(String linkId) {
-        final String sql = "DELETE FROM dashboard_links WHERE link_id = :linkId";
+        final String sql = """
+            WITH deleted AS (
+                DELETE FROM dashboard_links WHERE link_id = :linkId RETURNING user_id, is_active
+            )
+            UPDATE user_link_stats s SET
+                link_count = s.link_count - 1,
+                active_link_count = s.active_link_count - CASE WHEN d.is_active THEN 1 ELSE 0 END
+            FROM deleted d
+            WHERE s.user_id = d.user_id
+            """;
         namedJdbcTemplate.update(sql, Map.of("linkId", linkId));
     }
 
     @Override
-    public void incrementClickCounters(String linkId, String countryCode, String deviceType, String osName) {
+    public void applyLifecycleChanges(LinkLifecycleChanges changes) {
+        var deletedLinkIds = changes.deletedLinkIds();
+        if (!deletedLinkIds.isEmpty()) {
+            deleteLinks(deletedLinkIds);
+        }
+
+        var createdLinks = changes.createdLinks();
+        if (!createdLinks.isEmpty()) {
+            createLinks(createdLinks);
+        }
+
+        var updatedLinks = changes.updatedLinks();
+        if (!updatedLinks.isEmpty()) {
+            updateLinks(updatedLinks);
+        }
+    }
+
+    private void deleteLinks(List<String> linkIds) {
         var sql = """
-            UPDATE dashboard_links
-            SET
-              total_clicks = total_clicks + 1,
-              clicks_by_country = jsonb_set(
-                clicks_by_country,
-                ARRAY[:countryCode],
-                (COALESCE(clicks_by_country ->> :countryCode, '0')::int + 1)::text::jsonb,
-                true
-              ),
-              clicks_by_device = jsonb_set(
-                clicks_by_device,
-                ARRAY[:deviceType],
-                (COALESCE(clicks_by_device ->> :deviceType, '0')::int + 1)::text::jsonb,
-                true
-              ),
-              clicks_by_os = jsonb_set(
-                clicks_by_os,
-                ARRAY[:osName],
-                (COALESCE(clicks_by_os ->> :osName, '0')::int + 1)::text::jsonb,
-                true
-              )
-            WHERE link_id = :linkId
+            WITH deleted AS (
+                DELETE FROM dashboard_links WHERE link_id = ANY(CAST(:linkIds AS TEXT[])) RETURNING user_id, is_active
+            )
+            UPDATE user_link_stats s SET
+                link_count = s.link_count - d.link_count,
+                active_link_count = s.active_link_count - d.active_link_count
+            FROM (
+                SELECT user_id, COUNT(*) AS link_count, COUNT(*) FILTER (WHERE is_active) AS active_link_count
+                FROM deleted
+                GROUP BY user_id
+            ) d
+            WHERE s.user_id = d.user_id
+            """;
+
+        namedJdbcTemplate.update(sql, new MapSqlParameterSource("linkIds", linkIds.toArray(String[]::new)));
+    }
+
+    private void createLinks(List<DashboardLink> links) {
+        var sql = """
+            WITH inserted AS (
+                INSERT INTO dashboard_links (link_id, user_id, short_url, long_url, title, is_active, created_at, updated_at)
+                SELECT l.link_id, l.user_id, l.short_url, l.long_url, l.title, l.is_active,
+                       CAST(l.created_at AS TIMESTAMPTZ), CAST(l.updated_at AS TIMESTAMPTZ)
+                FROM unnest(
+                  CAST(:linkIds AS TEXT[]),
+                  CAST(:userIds AS TEXT[]),
+                  CAST(:shortUrls AS TEXT[]),
+                  CAST(:longUrls AS TEXT[]),
+                  CAST(:titles AS TEXT[]),
+                  CAST(:isActive AS BOOLEAN[]),
+                  CAST(:createdAts AS TEXT[]),
+                  CAST(:updatedAts AS TEXT[])
+                ) AS l(link_id, user_id, short_url, long_url, title, is_active, created_at, updated_at)
+                ON CONFLICT (link_id) DO NOTHING
+                RETURNING user_id, is_active
+            )
+            INSERT INTO user_link_stats (user_id, link_count, active_link_count)
+            SELECT user_id, COUNT(*), COUNT(*) FILTER (WHERE is_active) FROM inserted
+            GROUP BY user_id
+            ON CONFLICT (user_id) DO UPDATE SET
+                link_count = user_link_stats.link_count + EXCLUDED.link_count,
+                active_link_count = user_link_stats.active_link_count + EXCLUDED.active_link_count
             """;
 
+        var size = links.size();
+        var linkIds = new String[size];
+        var userIds = new String[size];
+        var shortUrls = new String[size];
+        var longUrls = new String[size];
+        var titles = new String[size];
+        var isActive = new boolean[size];
+        var createdAts = new String[size];
+        var updatedAts = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            var link = links.get(i);
+            linkIds[i] = link.linkId();
+            userIds[i] = link.userId();
+            shortUrls[i] = link.shortUrl();
+            longUrls[i] = link.longUrl();
+            titles[i] = link.title();
+            isActive[i] = link.isActive();
+            createdAts[i] = link.createdAt().toString();
+            updatedAts[i] = link.updatedAt().toString();
+        }
+
         var params = new MapSqlParameterSource()
-                .addValue("linkId", linkId)
-                .addValue("countryCode", countryCode)
-                .addValue("deviceType", deviceType)
-                .addValue("osName", osName);
+                .addValue("linkIds", linkIds)
+                .addValue("userIds", userIds)
+                .addValue("shortUrls", shortUrls)
+                .addValue("longUrls", longUrls)
+                .addValue("titles", titles)
+                .addValue("isActive", isActive)
+                .addValue("createdAts", createdAts)
+                .addValue("updatedAts", updatedAts);
+
+        namedJdbcTemplate.update(sql, params);
+    }
+
+    private void updateLinks(List<DashboardLink> links) {
+        var sql = """
+            WITH changes AS (
+                SELECT * FROM unnest(
+                  CAST(:linkIds AS TEXT[]),
+                  CAST(:longUrls AS TEXT[]),
+                  CAST(:titles AS TEXT[]),
+                  CAST(:isActive AS BOOLEAN[]),
+                  CAST(:updatedAts AS TEXT[])
+                ) AS c(link_id, long_url, title, is_active, updated_at)
+            ), previous AS (
+                SELECT dl.link_id, dl.is_active
+                FROM dashboard_links dl
+                JOIN changes c ON c.link_id = dl.link_id
+                FOR UPDATE OF dl
+            ), updated AS (
+                UPDATE dashboard_links dl SET
+                    long_url = c.long_url,
+                    title = c.title,
+                    is_active = c.is_active,
+                    updated_at = CAST(c.updated_at AS TIMESTAMPTZ)
+                FROM changes c
+                JOIN previous p ON p.link_id = c.link_id
+                WHERE dl.link_id = c.link_id
+                RETURNING dl.user_id, dl.is_active, p.is_active AS was_active
+            )
+            UPDATE user_link_stats s SET
+                active_link_count = s.active_link_count + d.delta
+            FROM (
+                SELECT user_id, SUM(CASE WHEN is_active THEN 1 ELSE -1 END) AS delta
+                FROM updated
+                WHERE is_active <> was_active
+                GROUP BY user_id
+            ) d
+            WHERE s.user_id = d.user_id
+            """;
+
+        var size = links.size();
+        var linkIds = new String[size];
+        var longUrls = new String[size];
+        var titles = new String[size];
+        var isActive = new boolean[size];
+        var updatedAts = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            var link = links.get(i);
+            linkIds[i] = link.linkId();
+            longUrls[i] = link.longUrl();
+            titles[i] = link.title();
+            isActive[i] = link.isActive();
+            updatedAts[i] = link.updatedAt().toString();
+        }
+
+        var params = new MapSqlParameterSource()
+                .addValue("linkIds", linkIds)
+                .addValue("longUrls", longUrls)
+                .addValue("titles", titles)
+                .addValue("isActive", isActive)
+                .addValue("updatedAts", updatedAts);
 
         namedJdbcTemplate.update(sql, params);
     }
 
+    @Override
+    public void incrementClickCounters(String linkId, String countryCode, String deviceType, String osName) {
+        var deltas = new ClickDeltas();
+        deltas.addClick(linkId, countryCode, deviceType, osName);
+
+        var params = new MapSqlParameterSource();
+        var writes = new ArrayList<String>();
+        writes.add(counterDeltasWrite(deltas.links(), params));
+        if (dimensionStorage.writesTable()) {
+            writes.add(dimensionDeltasWrite(deltas.links(), params));
+        }
+        executeWrites(writes, params);
+    }
+
     @Override
     public Page<DashboardLink> findByUserId(String userId, Pageable pageable) {
         long total = countByUserId(userId);
@@ -108,8 +357,15 @@ class JdbcDashboardLinkRepository implements DashboardLinkRepository {
         var selectSql = new StringBuilder("""
         SELECT
         dl.id, dl.link_id, dl.user_id, dl.short_url, dl.long_url,
-        dl.title, dl.is_active, dl.created_at, dl.updated_at, dl.total_clicks
-        FROM dashboard_links dl WHERE user_id = :userId""")
+        dl.title, dl.is_active, dl.created_at, dl.updated_at,
+        COALESCE(counters.total_clicks, 0) AS total_clicks
+        FROM dashboard_links dl
+        LEFT JOIN LATERAL (
+            SELECT SUM(c.total_clicks) AS total_clicks
+            FROM dashboard_link_counters c
+            WHERE c.link_id = dl.link_id
+        ) counters ON true
+        WHERE dl.user_id = :userId""")
         .append(createOrderByClause(pageable.getSort()))
         .append(" LIMIT :limit OFFSET :offset");
 
@@ -124,9 +380,124 @@ class JdbcDashboardLinkRepository implements DashboardLinkRepository {
     }
 
     @Override
-    public Optional<DashboardLinkDetails> getByLinkIdAndUser(String userId, String linkId) {
+    public List<DashboardLink> findByUserIdAfter(String userId, LinkCursor cursor, int limit) {
+        var sortExpression = SORT_EXPRESSIONS.get(cursor.column());
+        var direction = cursor.direction().isAscending() ? "ASC" : "DESC";
 
+        var selectSql = new StringBuilder("""
+        SELECT
+        dl.id, dl.link_id, dl.user_id, dl.short_url, dl.long_url,
+        dl.title, dl.is_active, dl.created_at, dl.updated_at,
+        COALESCE(counters.total_clicks, 0) AS total_clicks
+        FROM dashboard_links dl
+        LEFT JOIN LATERAL (
+            SELECT SUM(c.total_clicks) AS total_clicks
+            FROM dashboard_link_counters c
+            WHERE c.link_id = dl.link_id
+        ) counters ON true
+        WHERE dl.user_id = :userId""");
+
+        var params = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("limit", limit);
+
+        if (!cursor.isFirst()) {
+            // Row comparison, so the seek is a single range condition on the composite index.
+            selectSql.append(" AND (").append(sortExpression).append(", dl.id) ")
+                    .append(cursor.direction().isAscending() ? ">" : "<")
+                    .append(" (:lastValue, :lastId)");
+            params.addValue("lastValue", toSortValue(cursor.column(), cursor.value()))
+                    .addValue("lastId", cursor.id());
+        }
+
+        selectSql.append(" ORDER BY ").append(sortExpression).append(" ").append(direction)
+                .append(", dl.id ").append(direction)
+                .append(" LIMIT :limit");
+
+        return namedJdbcTemplate.query(selectSql.toString(), params, rowMapper);
+    }
+
+    @Override
+    public List<String> findUserIdsAfter(String afterUserId, int limit) {
+        // Users with links but no stats row are walked too, so the reconciliation creates their row.
         var sql = """
+            SELECT user_id FROM (
+                (SELECT user_id FROM user_link_stats
+                 WHERE user_id > :afterUserId
+                 ORDER BY user_id
+                 LIMIT :limit)
+                UNION
+                (SELECT DISTINCT user_id FROM dashboard_links
+                 WHERE user_id > :afterUserId
+                 ORDER BY user_id
+                 LIMIT :limit)
+            ) u
+            ORDER BY user_id
+            LIMIT :limit
+            """;
+
+        var params = new MapSqlParameterSource()
+                .addValue("afterUserId", afterUserId)
+                .addValue("limit", limit);
+
+        return namedJdbcTemplate.queryForList(sql, params, String.class);
+    }
+
+    @Override
+    public int reconcileUserLinkStats(List<String> userIds) {
+        var params = new MapSqlParameterSource("userIds", userIds.toArray(String[]::new));
+
+        // Locking the stats rows first makes lifecycle writes of these users wait, so the
+        // recount below (a new statement, so a new snapshot) cannot miss a committed change.
+        namedJdbcTemplate.query("""
+            SELECT user_id FROM user_link_stats
+            WHERE user_id = ANY(CAST(:userIds AS TEXT[]))
+            ORDER BY user_id
+            FOR UPDATE
+            """, params, rs -> {});
+
+        var sql = """
+            INSERT INTO user_link_stats (user_id, link_count, active_link_count)
+            SELECT u.user_id,
+                   COUNT(dl.id),
+                   COUNT(dl.id) FILTER (WHERE dl.is_active)
+            FROM unnest(CAST(:userIds AS TEXT[])) AS u(user_id)
+            LEFT JOIN dashboard_links dl ON dl.user_id = u.user_id
+            GROUP BY u.user_id
+            ON CONFLICT (user_id) DO UPDATE SET
+                link_count = EXCLUDED.link_count,
+                active_link_count = EXCLUDED.active_link_count
+            WHERE (user_link_stats.link_count, user_link_stats.active_link_count)
+                IS DISTINCT FROM (EXCLUDED.link_count, EXCLUDED.active_link_count)
+            """;
+
+        return namedJdbcTemplate.update(sql, params);
+    }
+
+    @Override
+    public Optional<DashboardLinkDetails> getByLinkIdAndUser(String userId, String linkId) {
+        var params = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("linkId", linkId);
+
+        var result = namedJdbcTemplate.query(detailsSql("dl.link_id = :linkId"), params,
+                (rs, rowNum) -> toDetails(rs));
+
+        return result.stream().findFirst();
+    }
+
+    @Override
+    public List<DashboardLinkDetails> findByLinkIdsAndUser(String userId, Collection<String> linkIds) {
+        var params = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("linkIds", linkIds.toArray(String[]::new));
+
+        return namedJdbcTemplate.query(detailsSql("dl.link_id = ANY(CAST(:linkIds AS TEXT[]))"), params,
+                (rs, rowNum) -> toDetails(rs));
+    }
+
+    private String detailsSql(String linkCondition) {
+        return """
         SELECT
             dl.id,
             dl.link_id,
@@ -137,40 +508,219 @@ class JdbcDashboardLinkRepository implements DashboardLinkRepository {
             dl.is_active,
             dl.created_at,
             dl.updated_at,
-            dl.total_clicks,
-            dl.clicks_by_country,
-            dl.clicks_by_device,
-            dl.clicks_by_os
+            COALESCE(counters.total_clicks, 0) AS total_clicks,
+            %s
         FROM dashboard_links dl
+        LEFT JOIN LATERAL (
+            SELECT
+                SUM(c.total_clicks) AS total_clicks,
+                jsonb_add_counts_agg(c.clicks_by_country) AS clicks_by_country,
+                jsonb_add_counts_agg(c.clicks_by_device) AS clicks_by_device,
+                jsonb_add_counts_agg(c.clicks_by_os) AS clicks_by_os
+            FROM dashboard_link_counters c
+            WHERE c.link_id = dl.link_id
+        ) counters ON true
+        WHERE dl.user_id = :userId
+          AND %s
+        """.formatted(dimensionStorage.readsTable() ? DIMENSION_TABLE_COLUMNS : DIMENSION_JSONB_COLUMNS,
+                linkCondition);
+    }
+
+    @Override
+    public Optional<LinkVersion> findLinkVersion(String userId, String linkId) {
+        var sql = """
+        SELECT dl.updated_at, COALESCE(SUM(c.total_clicks), 0) AS total_clicks
+        FROM dashboard_links dl
+        LEFT JOIN dashboard_link_counters c ON c.link_id = dl.link_id
         WHERE dl.user_id = :userId
           AND dl.link_id = :linkId
+        GROUP BY dl.updated_at
         """;
 
         var params = new MapSqlParameterSource()
                 .addValue("userId", userId)
                 .addValue("linkId", linkId);
 
-        var result = namedJdbcTemplate.query(sql, params, (rs, rowNum) ->
-                new DashboardLinkDetails(
-                        rs.getLong("id"),
-                        rs.getString("link_id"),
-                        rs.getString("user_id"),
-                        rs.getString("short_url"),
-                        rs.getString("long_url"),
-                        rs.getString("title"),
-                        rs.getBoolean("is_active"),
-                        rs.getTimestamp("created_at").toInstant(),
-                        rs.getTimestamp("updated_at").toInstant(),
-                        rs.getLong("total_clicks"),
-                        rs.getString("clicks_by_country"),
-                        rs.getString("clicks_by_device"),
-                        rs.getString("clicks_by_os")
-                )
-        );
+        return namedJdbcTemplate.query(sql, params, (rs, rowNum) -> new LinkVersion(
+                rs.getTimestamp("updated_at").toInstant(),
+                rs.getLong("total_clicks"))).stream().findFirst();
+    }
+
+    @Override
+    public List<LinkClickTotal> findClickTotals(Collection<String> linkIds) {
+        var sql = """
+        SELECT dl.link_id, dl.user_id, COALESCE(SUM(c.total_clicks), 0) AS total_clicks
+        FROM dashboard_links dl
+        LEFT JOIN dashboard_link_counters c ON c.link_id = dl.link_id
+        WHERE dl.link_id = ANY(CAST(:linkIds AS TEXT[]))
+        GROUP BY dl.link_id, dl.user_id
+        """;
+
+        var params = new MapSqlParameterSource("linkIds", linkIds.toArray(String[]::new));
+        return namedJdbcTemplate.query(sql, params, (rs, rowNum) -> new LinkClickTotal(
+                rs.getString("link_id"),
+                rs.getString("user_id"),
+                rs.getLong("total_clicks")));
+    }
+
+    @Override
+    public Optional<DashboardLinkTopDetails> getByLinkIdAndUser(String userId, String linkId,
+                                                                Set<LinkDimension> include, int topN) {
+        var columns = new StringBuilder();
+        var joins = new StringBuilder();
+        for (var dimension : include) {
+            var alias = dimension.name().toLowerCase();
+            columns.append(",\n    top_").append(alias).append(".keys AS ").append(alias).append("_keys")
+                    .append(",\n    top_").append(alias).append(".clicks AS ").append(alias).append("_clicks");
+            joins.append(TOP_DIMENSION_JOIN.formatted(dimensionSource(dimension), alias));
+        }
+
+        var sql = """
+        SELECT
+            dl.id, dl.link_id, dl.user_id, dl.short_url, dl.long_url,
+            dl.title, dl.is_active, dl.created_at, dl.updated_at,
+            COALESCE(counters.total_clicks, 0) AS total_clicks%s
+        FROM dashboard_links dl
+        LEFT JOIN LATERAL (
+            SELECT
+                SUM(c.total_clicks) AS total_clicks%s
+            FROM dashboard_link_counters c
+            WHERE c.link_id = dl.link_id
+        ) counters ON true%s
+        WHERE dl.user_id = :userId
+          AND dl.link_id = :linkId
+        """.formatted(columns, dimensionStorage.readsTable() ? "" : JSONB_DIMENSION_AGGREGATES, joins);
+
+        var params = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("linkId", linkId)
+                .addValue("topN", topN);
+
+        var result = namedJdbcTemplate.query(sql, params, (rs, rowNum) -> {
+            var dimensions = new EnumMap<LinkDimension, List<DimensionClick>>(LinkDimension.class);
+            for (var dimension : include) {
+                var alias = dimension.name().toLowerCase();
+                dimensions.put(dimension, toDimensionClicks(rs.getArray(alias + "_keys"), rs.getArray(alias + "_clicks")));
+            }
+            return new DashboardLinkTopDetails(new DashboardLinkDetails(
+                    rs.getLong("id"),
+                    rs.getString("link_id"),
+                    rs.getString("user_id"),
+                    rs.getString("short_url"),
+                    rs.getString("long_url"),
+                    rs.getString("title"),
+                    rs.getBoolean("is_active"),
+                    rs.getTimestamp("created_at").toInstant(),
+                    rs.getTimestamp("updated_at").toInstant(),
+                    rs.getLong("total_clicks"),
+                    null,
+                    null,
+                    null
+            ), dimensions);
+        });
 
         return result.stream().findFirst();
     }
 
+    // The table source reads one dimension of the link as a range of the primary key, but ranking by clicks
+    // still sums every key and sorts them all: clicks is unindexed so increments stay HOT, and the per-shard
+    // rows have to be summed before they can be ranked. The cost grows with the number of distinct keys.
+    private String dimensionSource(LinkDimension dimension) {
+        // Cities are only unique within their country, e.g. Paris FR and Paris US, so the key carries both.
+        if (dimension == LinkDimension.CITY) {
+            return """
+                SELECT country_code || ':' || city_name AS key, SUM(clicks) AS clicks FROM dashboard_link_city_stats
+                WHERE link_id = dl.link_id GROUP BY country_code, city_name""";
+        }
+
+        var name = dimension.name().toLowerCase();
+        return dimensionStorage.readsTable() ? """
+                SELECT key, SUM(clicks) AS clicks FROM dashboard_link_dimension_clicks
+                WHERE link_id = dl.link_id AND dimension = '%s' GROUP BY key""".formatted(name)
+                : "SELECT key, value::bigint AS clicks FROM jsonb_each_text(counters.clicks_by_%s)".formatted(name);
+    }
+
+    private static List<DimensionClick> toDimensionClicks(Array keys, Array clicks)
+            throws SQLException {
+        if (keys == null) {
+            return List.of();
+        }
+
+        var keyValues = (String[]) keys.getArray();
+        var clickValues = (Long[]) clicks.getArray();
+        var result = new ArrayList<DimensionClick>(keyValues.length);
+        for (int i = 0; i < keyValues.length; i++) {
+            result.add(new DimensionClick(keyValues[i], clickValues[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public void streamByUserId(String userId, boolean withDimensions, int fetchSize,
+                               Consumer<DashboardLinkDetails> action) {
+        var dimensionColumns = !withDimensions
+                ? "NULL AS clicks_by_country, NULL AS clicks_by_device, NULL AS clicks_by_os"
+                : dimensionStorage.readsTable() ? DIMENSION_TABLE_COLUMNS : DIMENSION_JSONB_COLUMNS;
+        var dimensionAggregates = withDimensions && !dimensionStorage.readsTable() ? """
+                ,
+                jsonb_add_counts_agg(c.clicks_by_country) AS clicks_by_country,
+                jsonb_add_counts_agg(c.clicks_by_device) AS clicks_by_device,
+                jsonb_add_counts_agg(c.clicks_by_os) AS clicks_by_os""" : "";
+
+        var sql = """
+        SELECT
+            dl.id, dl.link_id, dl.user_id, dl.short_url, dl.long_url,
+            dl.title, dl.is_active, dl.created_at, dl.updated_at,
+            COALESCE(counters.total_clicks, 0) AS total_clicks,
+            %s
+        FROM dashboard_links dl
+        LEFT JOIN LATERAL (
+            SELECT
+                SUM(c.total_clicks) AS total_clicks%s
+            FROM dashboard_link_counters c
+            WHERE c.link_id = dl.link_id
+        ) counters ON true
+        WHERE dl.user_id = :userId
+        ORDER BY dl.created_at, dl.id
+        """.formatted(dimensionColumns, dimensionAggregates);
+
+        var params = new MapSqlParameterSource("userId", userId);
+
+        // pgjdbc only reads through a server-side cursor, fetchSize rows at a time, outside auto-commit.
+        namedJdbcTemplate.getJdbcTemplate().execute((ConnectionCallback<Void>) connection -> {
+            var autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                var jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+                jdbcTemplate.setFetchSize(fetchSize);
+                new NamedParameterJdbcTemplate(jdbcTemplate).query(sql, params,
+                        (RowCallbackHandler) rs -> action.accept(toDetails(rs)));
+                return null;
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    private static DashboardLinkDetails toDetails(ResultSet rs) throws SQLException {
+        return new DashboardLinkDetails(
+                rs.getLong("id"),
+                rs.getString("link_id"),
+                rs.getString("user_id"),
+                rs.getString("short_url"),
+                rs.getString("long_url"),
+                rs.getString("title"),
+                rs.getBoolean("is_active"),
+                rs.getTimestamp("created_at").toInstant(),
+                rs.getTimestamp("updated_at").toInstant(),
+                rs.getLong("total_clicks"),
+                rs.getString("clicks_by_country"),
+                rs.getString("clicks_by_device"),
+                rs.getString("clicks_by_os")
+        );
+    }
+
     @Override
     public void incrementCityClicks(String linkId, String countryCode, String cityName, String latitude, String longitude) {
         var sql = """
@@ -181,43 +731,507 @@ class JdbcDashboardLinkRepository implements DashboardLinkRepository {
             :linkId, :countryCode, :cityName, :latitude, :longitude, 1
         )
         ON CONFLICT (link_id, country_code, city_name)
-        DO UPDATE SET clicks = dashboard_link_city_stats.clicks + 1
-        """;
+        DO UPDATE SET clicks = dashboard_link_city_stats.clicks + 1,
+            %s
+        """.formatted(CITY_COORDINATES_BACKFILL);
 
         var params = new MapSqlParameterSource()
                 .addValue("linkId", linkId)
                 .addValue("countryCode", countryCode)
                 .addValue("cityName", cityName)
-                .addValue("latitude", latitude)
-                .addValue("longitude", longitude);
+                .addValue("latitude", ClickDeltas.latitude(latitude))
+                .addValue("longitude", ClickDeltas.longitude(longitude));
 
         namedJdbcTemplate.update(sql, params);
     }
 
+    @Override
+    public void applyClickDeltas(ClickDeltas deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        var params = new MapSqlParameterSource();
+        var writes = new ArrayList<String>();
+        writes.add(counterDeltasWrite(deltas.links(), params));
+        if (dimensionStorage.writesTable()) {
+            writes.add(dimensionDeltasWrite(deltas.links(), params));
+        }
+        var stageCities = !deltas.cities().isEmpty() && cityStatsCopyWriter != null;
+        if (stageCities) {
+            writes.add(stagedCityDeltasMerge());
+            writes.add("DELETE FROM dashboard_link_city_stats_staging WHERE batch_id = :cityBatchId");
+        } else if (!deltas.cities().isEmpty()) {
+            writes.add(cityDeltasWrite(deltas.cities(), params));
+        }
+        if (!deltas.hourlyBuckets().isEmpty()) {
+            writes.add(hourlyDeltasWrite(deltas.hourlyBuckets(), params));
+        }
+
+        if (stageCities) {
+            cityStatsCopyWriter.stageAndMerge(deltas.cities(), batchId -> {
+                params.addValue("cityBatchId", batchId);
+                executeWrites(writes, params);
+            });
+        } else {
+            executeWrites(writes, params);
+        }
+    }
+
+    // All writes of a batch go out as one statement of data-modifying CTEs: a single round trip,
+    // and a single commit in auto-commit mode, so counters, city stats and buckets never disagree.
+    private void executeWrites(List<String> writes, MapSqlParameterSource params) {
+        var sql = new StringBuilder("WITH ");
+        for (int i = 0; i < writes.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("write_").append(i).append(" AS (").append(writes.get(i)).append(")");
+        }
+        sql.append(" SELECT 1");
+
+        namedJdbcTemplate.query(sql.toString(), params, rs -> {});
+    }
+
+    @Override
+    public Optional<List<ClickBucket>> findClickTimeSeries(String userId, String linkId, Instant from, Instant to,
+                                                           TimeSeriesGranularity granularity) {
+        var params = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("linkId", linkId)
+                .addValue("from", Timestamp.from(from))
+                .addValue("to", Timestamp.from(to));
+
+        var ownsLink = namedJdbcTemplate.queryForObject("""
+            SELECT EXISTS (SELECT 1 FROM dashboard_links WHERE link_id = :linkId AND user_id = :userId)
+            """, params, Boolean.class);
+        if (!Boolean.TRUE.equals(ownsLink)) {
+            return Optional.empty();
+        }
+
+        // Both branches are range scans of the (link_id, bucket_start) primary keys.
+        var sql = switch (granularity) {
+            case HOUR -> """
+                SELECT h.bucket_start, SUM(h.clicks) AS clicks,
+                       jsonb_add_counts_agg(h.clicks_by_country) AS clicks_by_country
+                FROM dashboard_link_clicks_hourly h
+                WHERE h.link_id = :linkId
+                  AND h.bucket_start >= :from
+                  AND h.bucket_start < :to
+                GROUP BY h.bucket_start
+                ORDER BY h.bucket_start
+                """;
+            case DAY -> """
+                SELECT b.bucket_start, SUM(b.clicks) AS clicks,
+                       jsonb_add_counts_agg(b.clicks_by_country) AS clicks_by_country
+                FROM (
+                    SELECT date_trunc('day', h.bucket_start, 'UTC') AS bucket_start, h.clicks, h.clicks_by_country
+                    FROM dashboard_link_clicks_hourly h
+                    WHERE h.link_id = :linkId
+                      AND h.bucket_start >= :from
+                      AND h.bucket_start < :to
+                    UNION ALL
+                    SELECT d.bucket_start, d.clicks, d.clicks_by_country
+                    FROM dashboard_link_clicks_daily d
+                    WHERE d.link_id = :linkId
+                      AND d.bucket_start >= :from
+                      AND d.bucket_start < :to
+                ) b
+                GROUP BY b.bucket_start
+                ORDER BY b.bucket_start
+                """;
+        };
+
+        return Optional.of(namedJdbcTemplate.query(sql, params, (rs, rowNum) -> new ClickBucket(
+                rs.getTimestamp("bucket_start").toInstant(),
+                rs.getLong("clicks"),
+                rs.getString("clicks_by_country")
+        )));
+    }
+
+    // Clusters are cells of a global grid, CITY_CLUSTER_CELLS_PER_TILE per side of a 256px map tile at the
+    // zoom level, so a cluster keeps its position while the map pans. Its point is the click-weighted
+    // centroid of its cities. The (link_id, location) GiST index finds the link's cities in the viewport, but
+    // both shapes still sort every city it returns by clicks before the limit, all cities of the link when
+    // there is no viewport. clicks is left unindexed so increments stay HOT, as for the other counters.
+    @Override
+    public Optional<List<CityCluster>> findCityClusters(String userId, String linkId, BoundingBox box, Integer zoom,
+                                                        int limit) {
+        var params = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("linkId", linkId)
+                .addValue("limit", limit);
+
+        var ownsLink = namedJdbcTemplate.queryForObject("""
+            SELECT EXISTS (SELECT 1 FROM dashboard_links WHERE link_id = :linkId AND user_id = :userId)
+            """, params, Boolean.class);
+        if (!Boolean.TRUE.equals(ownsLink)) {
+            return Optional.empty();
+        }
+
+        var boxCondition = "";
+        if (box != null) {
+            params.addValue("west", box.west())
+                    .addValue("south", box.south())
+                    .addValue("east", box.east())
+                    .addValue("north", box.north());
+            boxCondition = box.crossesAntimeridian()
+                    ? " AND (location <@ box(point(:west, :south), point(180, :north))"
+                            + " OR location <@ box(point(-180, :south), point(:east, :north)))"
+                    : " AND location <@ box(point(:west, :south), point(:east, :north))";
+        }
+
+        String sql;
+        if (zoom == null) {
+            sql = """
+            SELECT latitude, longitude, clicks, 1 AS cities, country_code, city_name
+            FROM dashboard_link_city_stats
+            WHERE link_id = :linkId%s
+            ORDER BY clicks DESC, country_code, city_name
+            LIMIT :limit
+            """.formatted(boxCondition);
+        } else {
+            params.addValue("cellSize", 360.0 / (1L << zoom) / CITY_CLUSTER_CELLS_PER_TILE);
+            sql = """
+            SELECT
+                SUM(latitude * clicks) / SUM(clicks) AS latitude,
+                SUM(longitude * clicks) / SUM(clicks) AS longitude,
+                SUM(clicks) AS clicks,
+                COUNT(*) AS cities,
+                CASE WHEN COUNT(*) = 1 THEN MIN(country_code) END AS country_code,
+                CASE WHEN COUNT(*) = 1 THEN MIN(city_name) END AS city_name
+            FROM dashboard_link_city_stats
+            WHERE link_id = :linkId
+              AND location IS NOT NULL%s
+            GROUP BY floor(longitude / :cellSize), floor(latitude / :cellSize)
+            ORDER BY SUM(clicks) DESC, MIN(country_code), MIN(city_name)
+            LIMIT :limit
+            """.formatted(boxCondition);
+        }
+
+        return Optional.of(namedJdbcTemplate.query(sql, params, (rs, rowNum) -> new CityCluster(
+                rs.getObject("latitude", Double.class),
+                rs.getObject("longitude", Double.class),
+                rs.getLong("clicks"),
+                rs.getInt("cities"),
+                rs.getString("country_code"),
+                rs.getString("city_name")
+        )));
+    }
+
+    @Override
+    public int compactHourlyClicks(Instant before, int limit) {
+        var sql = """
+        WITH moved AS (
+            DELETE FROM dashboard_link_clicks_hourly
+            WHERE (link_id, bucket_start, shard) IN (
+                SELECT link_id, bucket_start, shard
+                FROM dashboard_link_clicks_hourly
+                WHERE bucket_start < :before
+                LIMIT :limit
+                FOR UPDATE SKIP LOCKED
+            )
+            RETURNING link_id, bucket_start, clicks, clicks_by_country
+        ), daily AS (
+            INSERT INTO dashboard_link_clicks_daily (link_id, bucket_start, clicks, clicks_by_country)
+            SELECT link_id, date_trunc('day', bucket_start, 'UTC'), SUM(clicks), jsonb_add_counts_agg(clicks_by_country)
+            FROM moved
+            GROUP BY 1, 2
+            ON CONFLICT (link_id, bucket_start) DO UPDATE SET
+              clicks = dashboard_link_clicks_daily.clicks + EXCLUDED.clicks,
+              clicks_by_country = jsonb_add_counts(dashboard_link_clicks_daily.clicks_by_country, EXCLUDED.clicks_by_country)
+        )
+        SELECT COUNT(*) FROM moved
+        """;
+
+        var params = new MapSqlParameterSource()
+                .addValue("before", Timestamp.from(before))
+                .addValue("limit", limit);
+
+        var moved = namedJdbcTemplate.queryForObject(sql, params, Integer.class);
+        return moved == null ? 0 : moved;
+    }
+
+    private String counterDeltasWrite(Collection<ClickDeltas.LinkDelta> links, MapSqlParameterSource params) {
+        var sql = dimensionStorage.writesJsonb() ? """
+            INSERT INTO dashboard_link_counters (
+              link_id, shard, total_clicks, clicks_by_country, clicks_by_device, clicks_by_os
+            )
+            SELECT d.link_id, d.shard, d.total_clicks, d.clicks_by_country, d.clicks_by_device, d.clicks_by_os
+            FROM unnest(
+              CAST(:counterLinkIds AS TEXT[]),
+              CAST(:counterShards AS SMALLINT[]),
+              CAST(:counterTotalClicks AS BIGINT[]),
+              CAST(:counterClicksByCountry AS JSONB[]),
+              CAST(:counterClicksByDevice AS JSONB[]),
+              CAST(:counterClicksByOs AS JSONB[])
+            ) AS d(link_id, shard, total_clicks, clicks_by_country, clicks_by_device, clicks_by_os)
+            JOIN dashboard_links dl ON dl.link_id = d.link_id
+            ON CONFLICT (link_id, shard) DO UPDATE SET
+              total_clicks = dashboard_link_counters.total_clicks + EXCLUDED.total_clicks,
+              clicks_by_country = jsonb_add_counts(dashboard_link_counters.clicks_by_country, EXCLUDED.clicks_by_country),
+              clicks_by_device = jsonb_add_counts(dashboard_link_counters.clicks_by_device, EXCLUDED.clicks_by_device),
+              clicks_by_os = jsonb_add_counts(dashboard_link_counters.clicks_by_os, EXCLUDED.clicks_by_os)
+            """ : """
+            INSERT INTO dashboard_link_counters (link_id, shard, total_clicks)
+            SELECT d.link_id, d.shard, d.total_clicks
+            FROM unnest(
+              CAST(:counterLinkIds AS TEXT[]),
+              CAST(:counterShards AS SMALLINT[]),
+              CAST(:counterTotalClicks AS BIGINT[])
+            ) AS d(link_id, shard, total_clicks)
+            JOIN dashboard_links dl ON dl.link_id = d.link_id
+            ON CONFLICT (link_id, shard) DO UPDATE SET
+              total_clicks = dashboard_link_counters.total_clicks + EXCLUDED.total_clicks
+            """;
+
+        var size = links.size();
+        var linkIds = new String[size];
+        var shards = new short[size];
+        var totalClicks = new long[size];
+        var clicksByCountry = new String[size];
+        var clicksByDevice = new String[size];
+        var clicksByOs = new String[size];
+
+        var i = 0;
+        for (var link : links) {
+            linkIds[i] = link.linkId();
+            shards[i] = (short) link.shard();
+            totalClicks[i] = link.totalClicks();
+            if (dimensionStorage.writesJsonb()) {
+                clicksByCountry[i] = toJson(link.clicksByCountry());
+                clicksByDevice[i] = toJson(link.clicksByDevice());
+                clicksByOs[i] = toJson(link.clicksByOs());
+            }
+            i++;
+        }
+
+        params.addValue("counterLinkIds", linkIds)
+                .addValue("counterShards", shards)
+                .addValue("counterTotalClicks", totalClicks)
+                .addValue("counterClicksByCountry", clicksByCountry)
+                .addValue("counterClicksByDevice", clicksByDevice)
+                .addValue("counterClicksByOs", clicksByOs);
+
+        return sql;
+    }
+
+    private String dimensionDeltasWrite(Collection<ClickDeltas.LinkDelta> links, MapSqlParameterSource params) {
+        var sql = """
+            INSERT INTO dashboard_link_dimension_clicks (link_id, dimension, key, shard, clicks)
+            SELECT d.link_id, d.dimension, d.key, d.shard, d.clicks
+            FROM unnest(
+              CAST(:dimensionLinkIds AS TEXT[]),
+              CAST(:dimensionDimensions AS TEXT[]),
+              CAST(:dimensionKeys AS TEXT[]),
+              CAST(:dimensionShards AS SMALLINT[]),
+              CAST(:dimensionClicks AS BIGINT[])
+            ) AS d(link_id, dimension, key, shard, clicks)
+            JOIN dashboard_links dl ON dl.link_id = d.link_id
+            ON CONFLICT (link_id, dimension, key, shard) DO UPDATE SET
+              clicks = dashboard_link_dimension_clicks.clicks + EXCLUDED.clicks
+            """;
+
+        var size = links.stream()
+                .mapToInt(link -> link.clicksByCountry().size() + link.clicksByDevice().size() + link.clicksByOs().size())
+                .sum();
+        var rows = new DimensionRows(size);
+        for (var link : links) {
+            rows.add(link, "country", link.clicksByCountry());
+            rows.add(link, "device", link.clicksByDevice());
+            rows.add(link, "os", link.clicksByOs());
+        }
+
+        params.addValue("dimensionLinkIds", rows.linkIds)
+                .addValue("dimensionDimensions", rows.dimensions)
+                .addValue("dimensionKeys", rows.keys)
+                .addValue("dimensionShards", rows.shards)
+                .addValue("dimensionClicks", rows.clicks);
+
+        return sql;
+    }
+
+    private String hourlyDeltasWrite(Collection<ClickDeltas.HourlyDelta> buckets, MapSqlParameterSource params) {
+        var sql = """
+            INSERT INTO dashboard_link_clicks_hourly (link_id, bucket_start, shard, clicks, clicks_by_country)
+            SELECT d.link_id, to_timestamp(d.bucket_epoch), d.shard, d.clicks, d.clicks_by_country
+            FROM unnest(
+              CAST(:hourlyLinkIds AS TEXT[]),
+              CAST(:hourlyBucketEpochs AS BIGINT[]),
+              CAST(:hourlyShards AS SMALLINT[]),
+              CAST(:hourlyClicks AS BIGINT[]),
+              CAST(:hourlyClicksByCountry AS JSONB[])
+            ) AS d(link_id, bucket_epoch, shard, clicks, clicks_by_country)
+            JOIN dashboard_links dl ON dl.link_id = d.link_id
+            ON CONFLICT (link_id, bucket_start, shard) DO UPDATE SET
+              clicks = dashboard_link_clicks_hourly.clicks + EXCLUDED.clicks,
+              clicks_by_country = jsonb_add_counts(dashboard_link_clicks_hourly.clicks_by_country, EXCLUDED.clicks_by_country)
+            """;
+
+        var size = buckets.size();
+        var linkIds = new String[size];
+        var bucketEpochs = new long[size];
+        var shards = new short[size];
+        var clicks = new long[size];
+        var clicksByCountry = new String[size];
+
+        var i = 0;
+        for (var bucket : buckets) {
+            linkIds[i] = bucket.linkId();
+            bucketEpochs[i] = bucket.bucketStart().getEpochSecond();
+            shards[i] = (short) bucket.shard();
+            clicks[i] = bucket.clicks();
+            clicksByCountry[i] = toJson(bucket.clicksByCountry());
+            i++;
+        }
+
+        params.addValue("hourlyLinkIds", linkIds)
+                .addValue("hourlyBucketEpochs", bucketEpochs)
+                .addValue("hourlyShards", shards)
+                .addValue("hourlyClicks", clicks)
+                .addValue("hourlyClicksByCountry", clicksByCountry);
+
+        return sql;
+    }
+
+    // Both the merge and the DELETE of the staged rows run in one statement and see the same snapshot,
+    // so the merge still reads the rows the DELETE removes. Deltas are aggregated per city, so a batch
+    // never holds two rows for the same conflict key.
+    private static String stagedCityDeltasMerge() {
+        return """
+        INSERT INTO dashboard_link_city_stats (
+            link_id, country_code, city_name, latitude, longitude, clicks
+        )
+        SELECT link_id, country_code, city_name, latitude, longitude, clicks
+        FROM dashboard_link_city_stats_staging
+        WHERE batch_id = :cityBatchId
+        ON CONFLICT (link_id, country_code, city_name)
+        DO UPDATE SET clicks = dashboard_link_city_stats.clicks + EXCLUDED.clicks,
+            %s
+        """.formatted(CITY_COORDINATES_BACKFILL);
+    }
+
+    private String cityDeltasWrite(Collection<ClickDeltas.CityDelta> cities, MapSqlParameterSource params) {
+        var sql = """
+        INSERT INTO dashboard_link_city_stats (
+            link_id, country_code, city_name, latitude, longitude, clicks
+        )
+        SELECT * FROM unnest(
+            CAST(:cityLinkIds AS TEXT[]),
+            CAST(:cityCountryCodes AS TEXT[]),
+            CAST(:cityCityNames AS TEXT[]),
+            CAST(:cityLatitudes AS DOUBLE PRECISION[]),
+            CAST(:cityLongitudes AS DOUBLE PRECISION[]),
+            CAST(:cityClicks AS BIGINT[])
+        )
+        ON CONFLICT (link_id, country_code, city_name)
+        DO UPDATE SET clicks = dashboard_link_city_stats.clicks + EXCLUDED.clicks,
+            %s
+        """.formatted(CITY_COORDINATES_BACKFILL);
+
+        var size = cities.size();
+        var linkIds = new String[size];
+        var countryCodes = new String[size];
+        var cityNames = new String[size];
+        var latitudes = new Double[size];
+        var longitudes = new Double[size];
+        var clicks = new long[size];
+
+        var i = 0;
+        for (var city : cities) {
+            linkIds[i] = city.linkId();
+            countryCodes[i] = city.countryCode();
+            cityNames[i] = city.cityName();
+            latitudes[i] = city.latitude();
+            longitudes[i] = city.longitude();
+            clicks[i] = city.clicks();
+            i++;
+        }
+
+        params.addValue("cityLinkIds", linkIds)
+                .addValue("cityCountryCodes", countryCodes)
+                .addValue("cityCityNames", cityNames)
+                .addValue("cityLatitudes", latitudes)
+                .addValue("cityLongitudes", longitudes)
+                .addValue("cityClicks", clicks);
+
+        return sql;
+    }
+
+    private String toJson(Map<String, Long> counts) {
+        try {
+            return objectMapper.writeValueAsString(counts);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Could not serialize click counts", ex);
+        }
+    }
 
     private String createOrderByClause(Sort sort) {
         if (sort.isUnsorted()) {
-            return " ORDER BY created_at DESC";
+            return " ORDER BY dl.created_at DESC";
         }
 
         var orderBy = sort.stream()
                 .filter(order -> ALLOWED_SORT_COLUMNS.contains(order.getProperty()))
-                .map(order -> order.getProperty() + " " + order.getDirection())
+                .map(order -> SORT_EXPRESSIONS.get(order.getProperty()) + " " + order.getDirection())
                 .collect(Collectors.joining(", "));
 
         if (orderBy.isBlank()) {
-            return " ORDER BY created_at DESC";
+            return " ORDER BY dl.created_at DESC";
         }
 
         return " ORDER BY " + orderBy;
     }
 
+    private static Object toSortValue(String column, String value) {
+        return switch (column) {
+            case "created_at" -> Timestamp.from(Instant.parse(value));
+            case "total_clicks" -> Long.parseLong(value);
+            default -> value;
+        };
+    }
+
 
     private long countByUserId(String userId) {
-        var sql = "SELECT COUNT(*) FROM dashboard_links WHERE user_id = :userId";
-        var total = namedJdbcTemplate.queryForObject(sql, Map.of("userId", userId), Long.class);
+        var sql = "SELECT link_count FROM user_link_stats WHERE user_id = :userId";
+        var total = namedJdbcTemplate.query(sql, Map.of("userId", userId), (rs, rowNum) -> rs.getLong("link_count"));
+        if (!total.isEmpty()) {
+            return total.getFirst();
+        }
+
+        // No stats row yet, e.g. links inserted around the lifecycle writes: count them until the reconciler
+        // creates it. For a user without links this is an empty index range.
+        var count = namedJdbcTemplate.queryForObject("SELECT COUNT(*) FROM dashboard_links WHERE user_id = :userId",
+                Map.of("userId", userId), Long.class);
+        return count == null ? 0 : count;
+    }
+
+    private static final class DimensionRows {
+        private final String[] linkIds;
+        private final String[] dimensions;
+        private final String[] keys;
+        private final short[] shards;
+        private final long[] clicks;
+        private int size;
 
-        return total == null ? 0 : total;
+        private DimensionRows(int capacity) {
+            linkIds = new String[capacity];
+            dimensions = new String[capacity];
+            keys = new String[capacity];
+            shards = new short[capacity];
+            clicks = new long[capacity];
+        }
+
+        private void add(ClickDeltas.LinkDelta link, String dimension, Map<String, Long> counts) {
+            counts.forEach((key, count) -> {
+                linkIds[size] = link.linkId();
+                dimensions[size] = dimension;
+                keys[size] = key;
+                shards[size] = (short) link.shard();
+                clicks[size] = count;
+                size++;
+            });
+        }
     }
 
     private MapSqlParameterSource toSqlInsertParams(DashboardLink link) {
@@ -0,0 +1,3 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+record LinkClickTotal(String linkId, String userId, long totalClicks) {}
@@ -0,0 +1,62 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position in a user's link list sorted by one column, with id as tie-breaker. The first page has
+ * no position. Clients get it as an opaque token and cannot change the sort while paging.
+ */
+record LinkCursor(String column, Sort.Direction direction, String value, Long id) {
+
+    static final String DEFAULT_COLUMN = "created_at";
+
+    static LinkCursor first(Sort sort) {
+        return sort.stream()
+                .filter(order -> JdbcDashboardLinkRepository.ALLOWED_SORT_COLUMNS.contains(order.getProperty()))
+                .findFirst()
+                .map(order -> new LinkCursor(order.getProperty(), order.getDirection(), null, null))
+                .orElseGet(() -> new LinkCursor(DEFAULT_COLUMN, Sort.Direction.DESC, null, null));
+    }
+
+    LinkCursor after(DashboardLink link) {
+        var lastValue = switch (column) {
+            case "created_at" -> link.createdAt().toString();
+            case "total_clicks" -> String.valueOf(link.totalClicks());
+            case "title" -> link.title() == null ? "" : link.title();
+            case "short_url" -> link.shortUrl();
+            default -> throw new IllegalStateException("Unsupported sort column " + column);
+        };
+        return new LinkCursor(column, direction, lastValue, link.id());
+    }
+
+    boolean isFirst() {
+        return id == null;
+    }
+
+    String encode() {
+        var token = column + "|" + direction + "|" + id + "|" + value;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static LinkCursor decode(String token) {
+        try {
+            var parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|", 4);
+            if (parts.length != 4 || !JdbcDashboardLinkRepository.ALLOWED_SORT_COLUMNS.contains(parts[0])) {
+                throw new InvalidCursorException(token);
+            }
+            switch (parts[0]) {
+                case "created_at" -> Instant.parse(parts[3]);
+                case "total_clicks" -> Long.parseLong(parts[3]);
+                default -> { }
+            }
+            return new LinkCursor(parts[0], Sort.Direction.valueOf(parts[1]), parts[3], Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            throw new InvalidCursorException(token);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinkDetailsResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.MetricEntryResponse;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache of link details, keyed by link id and bounded by an estimate of the memory
+ * held. Writes of this pod invalidate entries, lifecycle changes immediately and clicks once the
+ * entry is older than the click staleness bound, so hot links are not reloaded on every click.
+ * Writes consumed by other pods are only picked up after the TTL.
+ */
+class LinkDetailsCache {
+
+    private final Cache<String, CachedDetails> cache;
+    private final long clickStalenessNanos;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    LinkDetailsCache(MeterRegistry meterRegistry, long maxWeightBytes, Duration ttl, Duration clickStaleness) {
+        this.clickStalenessNanos = clickStaleness.toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((String linkId, CachedDetails details) -> details.weight())
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "dashboard.link.details");
+        Gauge.builder("dashboard.link.details.cache.weight", cache,
+                        c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L))
+                .description("Estimated number of bytes held by cached link details")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    Optional<DashboardLinkDetailsResponse> get(String userId, String linkId,
+                                               Supplier<Optional<DashboardLinkDetailsResponse>> loader) {
+        var details = cache.getIfPresent(linkId);
+        if (details != null && details.isStale(clickStalenessNanos)) {
+            cache.asMap().remove(linkId, details);
+            details = null;
+        }
+
+        // Loaded outside the cache's own compute, which would hold a map lock for the whole query and pin
+        // the carrier of every virtual thread waiting for the same link; the caller coalesces concurrent misses.
+        if (details == null) {
+            var invalidationsBefore = invalidations();
+            var loaded = loader.get();
+            if (loaded.isEmpty()) {
+                return Optional.empty();
+            }
+            details = new CachedDetails(userId, loaded.get(), System.nanoTime());
+            // A link invalidated while it was loading may have been read before the change, so it is not kept.
+            if (invalidations.get() == invalidationsBefore) {
+                cache.put(linkId, details);
+            }
+        }
+
+        // Only the owner's lookups are cached, so a hit for another user is a link they do not own.
+        if (details == null || !details.userId().equals(userId)) {
+            return Optional.empty();
+        }
+        return Optional.of(details.response());
+    }
+
+    // Never loads: a miss, a stale entry or another user's entry is left to the caller.
+    Optional<DashboardLinkDetailsResponse> peek(String userId, String linkId) {
+        var cached = cache.getIfPresent(linkId);
+        if (cached == null || cached.isStale(clickStalenessNanos) || !cached.userId().equals(userId)) {
+            return Optional.empty();
+        }
+        return Optional.of(cached.response());
+    }
+
+    long invalidations() {
+        return invalidations.get();
+    }
+
+    // Leaves a fresh entry alone, as it may be newer than what the caller read, but replaces a stale one,
+    // and skips the put if anything was invalidated since the caller took invalidationsBefore.
+    void putIfAbsentOrStale(String userId, DashboardLinkDetailsResponse response, long invalidationsBefore) {
+        if (invalidations.get() == invalidationsBefore) {
+            cache.asMap().merge(response.linkId(), new CachedDetails(userId, response, System.nanoTime()),
+                    (existing, loaded) -> existing.isStale(clickStalenessNanos) ? loaded : existing);
+        }
+    }
+
+    void invalidate(String linkId) {
+        invalidations.incrementAndGet();
+        cache.invalidate(linkId);
+    }
+
+    void invalidateAll() {
+        invalidations.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    void markClicked(Collection<String> linkIds) {
+        for (var linkId : linkIds) {
+            var cached = cache.getIfPresent(linkId);
+            if (cached != null) {
+                cached.markClicked();
+            }
+        }
+    }
+
+    private static final class CachedDetails {
+        private final String userId;
+        private final DashboardLinkDetailsResponse response;
+        private final long loadedAtNanos;
+        private final int weight;
+        private volatile boolean clicked;
+
+        private CachedDetails(String userId, DashboardLinkDetailsResponse response, long loadedAtNanos) {
+            this.userId = userId;
+            this.response = response;
+            this.loadedAtNanos = loadedAtNanos;
+            this.weight = estimateWeight(userId, response);
+        }
+
+        private void markClicked() {
+            clicked = true;
+        }
+
+        private boolean isStale(long clickStalenessNanos) {
+            return clicked && System.nanoTime() - loadedAtNanos >= clickStalenessNanos;
+        }
+
+        String userId() {
+            return userId;
+        }
+
+        DashboardLinkDetailsResponse response() {
+            return response;
+        }
+
+        int weight() {
+            return weight;
+        }
+
+        // Rough retained size: object headers and fields plus two bytes per character.
+        private static int estimateWeight(String userId, DashboardLinkDetailsResponse response) {
+            return 256
+                    + chars(userId) + chars(response.linkId()) + chars(response.shortUrl())
+                    + chars(response.longUrl()) + chars(response.title())
+                    + metrics(response.clicksByCountry()) + metrics(response.clicksByDevice())
+                    + metrics(response.clicksByOs());
+        }
+
+        private static int chars(String value) {
+            return value == null ? 0 : 40 + 2 * value.length();
+        }
+
+        private static int metrics(List<MetricEntryResponse> entries) {
+            var weight = 16;
+            for (var entry : entries) {
+                weight += 32 + chars(entry.key());
+            }
+            return weight;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+public enum LinkDimension {
+    COUNTRY,
+    DEVICE,
+    OS,
+    CITY
+}
@@ -0,0 +1,66 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An export that holds one of the exporter's permits. The permit is returned once the body has been written,
+ * or earlier through {@link #release()} when the request times out or fails; a released export stops at its
+ * next write instead of reading the rest of the cursor for a client that is gone.
+ */
+public class LinkExport implements StreamingResponseBody {
+
+    private final Duration timeout;
+    private final StreamingResponseBody body;
+    private final Runnable onRelease;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    LinkExport(Duration timeout, StreamingResponseBody body, Runnable onRelease) {
+        this.timeout = timeout;
+        this.body = body;
+        this.onRelease = onRelease;
+    }
+
+    // How long the request may stream before the container ends it.
+    public Duration timeout() {
+        return timeout;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try {
+            body.writeTo(new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    ensureNotReleased();
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    ensureNotReleased();
+                    out.write(b, off, len);
+                }
+            });
+        } finally {
+            release();
+        }
+    }
+
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            onRelease.run();
+        }
+    }
+
+    private void ensureNotReleased() throws IOException {
+        if (released.get()) {
+            throw new IOException("Export was released before it finished");
+        }
+    }
+}
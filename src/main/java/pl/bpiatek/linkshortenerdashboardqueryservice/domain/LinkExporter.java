@@ -0,0 +1,167 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinksResponse;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Writes every link of a user to an output stream as it is read from the database cursor,
+ * so memory stays flat however many links the account has.
+ * An export holds its connection for as long as the client takes to download it, so exports read from
+ * their own pool and at most {@code maxConcurrent} run at once; further ones are turned away.
+ * Each export may stream for up to {@code timeout}, far longer than the container's default async timeout.
+ */
+class LinkExporter {
+
+    private static final String CSV_HEADER =
+            "link_id,short_url,long_url,title,is_active,created_at,updated_at,total_clicks";
+    private static final String CSV_DIMENSIONS_HEADER = ",clicks_by_country,clicks_by_device,clicks_by_os";
+
+    private final DashboardLinkRepository repository;
+    private final DashboardLinkDetailsDtoMapper dtoMapper;
+    private final ObjectMapper objectMapper;
+    private final int fetchSize;
+    private final Duration timeout;
+    private final Semaphore permits;
+    private final Counter rejectedExports;
+
+    LinkExporter(DashboardLinkRepository repository, DashboardLinkDetailsDtoMapper dtoMapper,
+                 ObjectMapper objectMapper, MeterRegistry meterRegistry, int fetchSize, int maxConcurrent,
+                 Duration timeout) {
+        this.repository = repository;
+        this.dtoMapper = dtoMapper;
+        this.objectMapper = objectMapper;
+        this.fetchSize = fetchSize;
+        this.timeout = timeout;
+        this.permits = new Semaphore(maxConcurrent);
+
+        Gauge.builder("dashboard.export.active", permits, p -> maxConcurrent - p.availablePermits())
+                .description("Number of link exports streaming")
+                .register(meterRegistry);
+        this.rejectedExports = Counter.builder("dashboard.export.rejected")
+                .description("Link exports turned away because the concurrency limit was reached")
+                .register(meterRegistry);
+    }
+
+    // Empty when the limit is reached. The permit is held until the returned export is written or released.
+    Optional<LinkExport> tryExport(String userId, ExportFormat format, boolean includeDimensions) {
+        if (!permits.tryAcquire()) {
+            rejectedExports.increment();
+            return Optional.empty();
+        }
+        return Optional.of(new LinkExport(timeout, out -> export(userId, format, includeDimensions, out),
+                permits::release));
+    }
+
+    void export(String userId, ExportFormat format, boolean includeDimensions, OutputStream out) throws IOException {
+        switch (format) {
+            case NDJSON -> exportNdjson(userId, includeDimensions, out);
+            case CSV -> exportCsv(userId, includeDimensions, out);
+        }
+    }
+
+    private void exportNdjson(String userId, boolean includeDimensions, OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            stream(userId, includeDimensions, link -> {
+                try {
+                    generator.writeObject(includeDimensions ? dtoMapper.toResponse(link) : toLinksResponse(link));
+                    generator.writeRaw('\n');
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        }
+    }
+
+    private void exportCsv(String userId, boolean includeDimensions, OutputStream out) throws IOException {
+        var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write(includeDimensions ? CSV_HEADER + CSV_DIMENSIONS_HEADER : CSV_HEADER);
+        writer.write('\n');
+        stream(userId, includeDimensions, link -> {
+            try {
+                writeCsvRow(writer, link, includeDimensions);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+        writer.flush();
+    }
+
+    private void stream(String userId, boolean includeDimensions, Consumer<DashboardLinkDetails> action)
+            throws IOException {
+        try {
+            repository.streamByUserId(userId, includeDimensions, fetchSize, action);
+        } catch (UncheckedIOException ex) {
+            // The client went away; stop reading the cursor and let the container handle it.
+            throw ex.getCause();
+        }
+    }
+
+    private static void writeCsvRow(Writer writer, DashboardLinkDetails link, boolean includeDimensions)
+            throws IOException {
+        writeCsvField(writer, link.linkId());
+        writer.write(',');
+        writeCsvField(writer, link.shortUrl());
+        writer.write(',');
+        writeCsvField(writer, link.longUrl());
+        writer.write(',');
+        writeCsvField(writer, link.title());
+        writer.write(',');
+        writer.write(Boolean.toString(link.isActive()));
+        writer.write(',');
+        writer.write(link.createdAt().toString());
+        writer.write(',');
+        writer.write(link.updatedAt().toString());
+        writer.write(',');
+        writer.write(Long.toString(link.totalClicks()));
+        if (includeDimensions) {
+            writer.write(',');
+            writeCsvField(writer, link.clicksByCountry());
+            writer.write(',');
+            writeCsvField(writer, link.clicksByDevice());
+            writer.write(',');
+            writeCsvField(writer, link.clicksByOs());
+        }
+        writer.write('\n');
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static DashboardLinksResponse toLinksResponse(DashboardLinkDetails link) {
+        return new DashboardLinksResponse(
+                link.id(),
+                link.linkId(),
+                link.userId(),
+                link.shortUrl(),
+                link.longUrl(),
+                link.title(),
+                link.isActive(),
+                link.createdAt(),
+                link.updatedAt(),
+                link.totalClicks()
+        );
+    }
+}
@@ -0,0 +1,108 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Net effect of a batch of lifecycle events, per link. Applying the deletes, then the creates,
+ * then the updates leaves dashboard_links in the same state as applying the events one by one.
+ */
+class LinkLifecycleChanges {
+
+    private final Map<String, LinkChange> changes = new LinkedHashMap<>();
+    private int events;
+
+    void created(DashboardLink link) {
+        events++;
+        var change = changes.computeIfAbsent(link.linkId(), linkId -> new LinkChange());
+        // A create of a link that is already pending is ignored, like ON CONFLICT DO NOTHING. A pending update
+        // is kept unless the link was deleted first: for a link that already exists the create is a no-op and
+        // the update still applies.
+        if (change.create == null) {
+            change.create = link;
+            if (change.deleteExisting) {
+                change.update = null;
+            }
+        }
+    }
+
+    void updated(DashboardLink link) {
+        events++;
+        var change = changes.computeIfAbsent(link.linkId(), linkId -> new LinkChange());
+        if (change.deleteExisting && change.create == null) {
+            return;
+        }
+
+        if (change.create != null) {
+            change.create = withUpdate(change.create, link);
+        }
+        // Kept even when folded into a pending create, since the create is a no-op for a link
+        // that already exists, e.g. on redelivery.
+        change.update = link;
+    }
+
+    void deleted(String linkId) {
+        events++;
+        var change = changes.computeIfAbsent(linkId, key -> new LinkChange());
+        change.deleteExisting = true;
+        change.create = null;
+        change.update = null;
+    }
+
+    List<String> deletedLinkIds() {
+        return changes.entrySet().stream()
+                .filter(entry -> entry.getValue().deleteExisting)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    List<DashboardLink> createdLinks() {
+        return changes.values().stream()
+                .map(change -> change.create)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    List<DashboardLink> updatedLinks() {
+        return changes.values().stream()
+                .map(change -> change.update)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    Collection<String> linkIds() {
+        return changes.keySet();
+    }
+
+    int events() {
+        return events;
+    }
+
+    boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    private static DashboardLink withUpdate(DashboardLink created, DashboardLink update) {
+        return new DashboardLink(
+                created.id(),
+                created.linkId(),
+                created.userId(),
+                created.shortUrl(),
+                update.longUrl(),
+                update.title(),
+                update.isActive(),
+                created.createdAt(),
+                update.updatedAt(),
+                created.totalClicks()
+        );
+    }
+
+    private static final class LinkChange {
+        private boolean deleteExisting;
+        private DashboardLink create;
+        private DashboardLink update;
+    }
+}
@@ -15,9 +15,11 @@ class LinkLifecycleConsumer {
 
     private static final Logger log = LoggerFactory.getLogger(LinkLifecycleConsumer.class);
     private final DashboardLinkRepository dashboardLinkRepository;
+    private final LinkDetailsCache linkDetailsCache;
 
-    LinkLifecycleConsumer(DashboardLinkRepository dashboardLinkRepository) {
+    LinkLifecycleConsumer(DashboardLinkRepository dashboardLinkRepository, LinkDetailsCache linkDetailsCache) {
         this.dashboardLinkRepository = dashboardLinkRepository;
+        this.linkDetailsCache = linkDetailsCache;
     }
 
     @KafkaListener(
@@ -40,7 +42,23 @@ class LinkLifecycleConsumer {
 
     private void handleLinkCreated(LinkCreated linkCreated) {
         log.info("Received LinkCreated event for link_id '{}'. Creating dashboard view.", linkCreated.getLinkId());
-        var link = new DashboardLink(
+        dashboardLinkRepository.create(toDashboardLink(linkCreated));
+    }
+
+    private void handleLinkUpdated(LinkUpdated linkUpdated) {
+        log.info("Received LinkUpdated event for link_id '{}'. Updating dashboard view.", linkUpdated.getLinkId());
+        dashboardLinkRepository.update(toDashboardLink(linkUpdated));
+        linkDetailsCache.invalidate(linkUpdated.getLinkId());
+    }
+
+    private void handleLinkDeleted(LinkDeleted linkDeleted) {
+        log.info("Received LinkDeleted event for link_id '{}'. Deleting from dashboard view.", linkDeleted.getLinkId());
+        dashboardLinkRepository.delete(linkDeleted.getLinkId());
+        linkDetailsCache.invalidate(linkDeleted.getLinkId());
+    }
+
+    static DashboardLink toDashboardLink(LinkCreated linkCreated) {
+        return new DashboardLink(
                 null,
                 linkCreated.getLinkId(),
                 linkCreated.getUserId(),
@@ -52,12 +70,10 @@ class LinkLifecycleConsumer {
                 convertProtoToInstant(linkCreated.getCreatedAt()),
                 0
         );
-        dashboardLinkRepository.create(link);
     }
 
-    private void handleLinkUpdated(LinkUpdated linkUpdated) {
-        log.info("Received LinkUpdated event for link_id '{}'. Updating dashboard view.", linkUpdated.getLinkId());
-        var link = new DashboardLink(
+    static DashboardLink toDashboardLink(LinkUpdated linkUpdated) {
+        return new DashboardLink(
                 null,
                 linkUpdated.getLinkId(),
                 linkUpdated.getUserId(),
@@ -69,15 +85,9 @@ class LinkLifecycleConsumer {
                 convertProtoToInstant(linkUpdated.getUpdatedAt()),
                 0
         );
-        dashboardLinkRepository.update(link);
-    }
-
-    private void handleLinkDeleted(LinkDeleted linkDeleted) {
-        log.info("Received LinkDeleted event for link_id '{}'. Deleting from dashboard view.", linkDeleted.getLinkId());
-        dashboardLinkRepository.delete(linkDeleted.getLinkId());
     }
 
-    private Instant convertProtoToInstant(Timestamp protoTimestamp) {
+    private static Instant convertProtoToInstant(Timestamp protoTimestamp) {
         if (protoTimestamp == null) {
             return null;
         }
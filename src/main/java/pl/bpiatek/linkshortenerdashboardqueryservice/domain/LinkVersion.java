@@ -0,0 +1,25 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinkDetailsResponse;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Version of a link's details. Lifecycle events move {@code updatedAt} and clicks move {@code totalClicks},
+ * so together they change whenever anything shown for the link does.
+ */
+public record LinkVersion(Instant updatedAt, long totalClicks) {
+
+    public static LinkVersion of(DashboardLinkDetailsResponse response) {
+        return new LinkVersion(response.updatedAt(), response.totalClicks());
+    }
+
+    public String eTag() {
+        return "W/\"" + Long.toHexString(epochMicros(updatedAt)) + "-" + Long.toHexString(totalClicks) + "\"";
+    }
+
+    static long epochMicros(Instant instant) {
+        return instant == null ? 0 : ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+    }
+}
@@ -0,0 +1,53 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import org.springframework.util.DigestUtils;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.CursorPagedResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinksResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.PagedResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Version of one page of a user's links, hashed from the rows and totals sent with it. The tag always
+ * describes exactly the content it comes with, whichever replica served the page, at the price of
+ * reading the page before a 304 can be answered.
+ */
+public final class LinksPageVersion {
+
+    private LinksPageVersion() {
+    }
+
+    public static String eTag(PagedResponse<DashboardLinksResponse> page) {
+        return eTag(page.content(), page.page(), page.size(), page.totalElements());
+    }
+
+    public static String eTag(CursorPagedResponse<DashboardLinksResponse> page) {
+        return eTag(page.content(), page.size(), page.nextCursor());
+    }
+
+    private static String eTag(List<DashboardLinksResponse> links, Object... pageFields) {
+        var text = new StringBuilder();
+        for (var field : pageFields) {
+            append(text, field);
+        }
+        for (var link : links) {
+            append(text, link.id());
+            append(text, link.linkId());
+            append(text, link.shortUrl());
+            append(text, link.longUrl());
+            append(text, link.title());
+            append(text, link.isActive());
+            append(text, link.createdAt());
+            append(text, link.updatedAt());
+            append(text, link.totalClicks());
+        }
+        return "W/\"" + DigestUtils.md5DigestAsHex(text.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    // Length-prefixed, so no value can run into the next one.
+    private static void append(StringBuilder text, Object value) {
+        var string = String.valueOf(value);
+        text.append(string.length()).append(':').append(string);
+    }
+}
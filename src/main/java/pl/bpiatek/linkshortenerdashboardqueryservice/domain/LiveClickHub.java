@@ -0,0 +1,272 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.LinkClicksUpdate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process fan-out of live click counts to the SSE subscribers connected to this pod. Ingest only merges
+ * click deltas into a pending map; a single dispatcher resolves them to owners and totals, so the totals
+ * handed out for a link never go backwards. Each subscriber holds at most one pending update per link,
+ * so a slow client gets the latest total with the summed delta instead of a backlog.
+ */
+class LiveClickHub implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveClickHub.class);
+
+    private final DashboardLinkRepository repository;
+    private final int maxConnections;
+    private final int maxPendingLinks;
+    private final long emitterTimeoutMillis;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ReentrantLock pendingLock = new ReentrantLock();
+    private final Condition pendingAvailable = pendingLock.newCondition();
+    private final Thread dispatcher;
+    private final Counter sentUpdates;
+    private final Counter coalescedUpdates;
+    private final Counter droppedUpdates;
+    private final Counter rejectedConnections;
+
+    private Map<String, Long> pendingDeltas = new HashMap<>();
+
+    LiveClickHub(DashboardLinkRepository repository,
+                 MeterRegistry meterRegistry,
+                 int maxConnections,
+                 int maxPendingLinks,
+                 Duration emitterTimeout) {
+        this.repository = repository;
+        this.maxConnections = maxConnections;
+        this.maxPendingLinks = maxPendingLinks;
+        this.emitterTimeoutMillis = emitterTimeout.toMillis();
+
+        Gauge.builder("dashboard.live.connections", connections, AtomicInteger::get)
+                .description("Number of open live click streams")
+                .register(meterRegistry);
+        this.rejectedConnections = Counter.builder("dashboard.live.connections.rejected")
+                .description("Live click streams refused because the pod was at its connection limit")
+                .register(meterRegistry);
+        this.sentUpdates = Counter.builder("dashboard.live.updates.sent")
+                .description("Click count updates sent to live click streams")
+                .register(meterRegistry);
+        this.coalescedUpdates = Counter.builder("dashboard.live.updates.coalesced")
+                .description("Click count updates replaced by a newer one for the same link before being sent")
+                .register(meterRegistry);
+        this.droppedUpdates = Counter.builder("dashboard.live.updates.dropped")
+                .description("Click count updates dropped because a stream was full or had disconnected")
+                .register(meterRegistry);
+
+        this.dispatcher = Thread.ofVirtual().name("live-click-dispatcher").start(this::dispatch);
+    }
+
+    Optional<SseEmitter> subscribe(String userId) {
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            rejectedConnections.increment();
+            return Optional.empty();
+        }
+
+        var emitter = new SseEmitter(emitterTimeoutMillis);
+        var subscriber = new Subscriber(userId, emitter);
+        subscribers.compute(userId, (id, userSubscribers) -> {
+            var updated = userSubscribers != null ? userSubscribers : ConcurrentHashMap.<Subscriber>newKeySet();
+            updated.add(subscriber);
+            return updated;
+        });
+
+        emitter.onTimeout(emitter::complete);
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onError(ex -> unsubscribe(subscriber));
+        return Optional.of(emitter);
+    }
+
+    void publish(ClickDeltas deltas) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+
+        pendingLock.lock();
+        try {
+            for (var link : deltas.links()) {
+                pendingDeltas.merge(link.linkId(), link.totalClicks(), Long::sum);
+            }
+            pendingAvailable.signal();
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    // Also finds connections that went away without the container noticing.
+    @Scheduled(fixedDelayString = "${dashboard.live.heartbeat-interval-ms:15000}")
+    void heartbeat() {
+        for (var userSubscribers : subscribers.values()) {
+            for (var subscriber : userSubscribers) {
+                executor.execute(subscriber::heartbeat);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        dispatcher.interrupt();
+        executor.shutdownNow();
+        subscribers.values().forEach(userSubscribers -> userSubscribers.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    private void dispatch() {
+        while (true) {
+            Map<String, Long> deltas;
+            pendingLock.lock();
+            try {
+                while (pendingDeltas.isEmpty()) {
+                    pendingAvailable.await();
+                }
+                deltas = pendingDeltas;
+                pendingDeltas = new HashMap<>();
+            } catch (InterruptedException ex) {
+                return;
+            } finally {
+                pendingLock.unlock();
+            }
+
+            try {
+                fanOut(deltas);
+            } catch (RuntimeException ex) {
+                log.warn("Failed to publish live click counts of {} links. Skipping them.", deltas.size(), ex);
+            }
+        }
+    }
+
+    private void fanOut(Map<String, Long> deltas) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+
+        for (var total : repository.findClickTotals(deltas.keySet())) {
+            var userSubscribers = subscribers.get(total.userId());
+            if (userSubscribers == null) {
+                continue;
+            }
+            var update = new LinkClicksUpdate(total.linkId(), total.totalClicks(), deltas.get(total.linkId()));
+            for (var subscriber : userSubscribers) {
+                subscriber.offer(update);
+            }
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        subscribers.computeIfPresent(subscriber.userId, (userId, userSubscribers) -> {
+            if (userSubscribers.remove(subscriber)) {
+                connections.decrementAndGet();
+            }
+            return userSubscribers.isEmpty() ? null : userSubscribers;
+        });
+    }
+
+    private final class Subscriber {
+        private final String userId;
+        private final SseEmitter emitter;
+        private final Map<String, LinkClicksUpdate> pending = new LinkedHashMap<>();
+        private boolean draining;
+        private boolean closed;
+
+        private Subscriber(String userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+        }
+
+        void offer(LinkClicksUpdate update) {
+            synchronized (this) {
+                if (closed) {
+                    droppedUpdates.increment();
+                    return;
+                }
+
+                var previous = pending.get(update.linkId());
+                if (previous != null) {
+                    pending.put(update.linkId(), new LinkClicksUpdate(update.linkId(), update.totalClicks(),
+                            previous.delta() + update.delta()));
+                    coalescedUpdates.increment();
+                } else if (pending.size() >= maxPendingLinks) {
+                    droppedUpdates.increment();
+                } else {
+                    pending.put(update.linkId(), update);
+                }
+
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            executor.execute(this::drain);
+        }
+
+        // At most one drain runs per subscriber, so its updates are sent in order.
+        private void drain() {
+            while (true) {
+                List<LinkClicksUpdate> updates;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+                    updates = new ArrayList<>(pending.values());
+                    pending.clear();
+                }
+
+                for (int i = 0; i < updates.size(); i++) {
+                    try {
+                        emitter.send(SseEmitter.event().name("clicks").data(updates.get(i), MediaType.APPLICATION_JSON));
+                        sentUpdates.increment();
+                    } catch (IOException | IllegalStateException ex) {
+                        droppedUpdates.increment(updates.size() - i);
+                        close();
+                        return;
+                    }
+                }
+            }
+        }
+
+        void heartbeat() {
+            try {
+                emitter.send(SseEmitter.event().comment("heartbeat"));
+            } catch (IOException | IllegalStateException ex) {
+                close();
+            }
+        }
+
+        private void close() {
+            synchronized (this) {
+                closed = true;
+                droppedUpdates.increment(pending.size());
+                pending.clear();
+            }
+            unsubscribe(this);
+            emitter.complete();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonToken;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.MetricEntryResponse;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes a JSON object of key to click count into metric entries ordered by count, descending.
+ * Reads tokens straight off the parser into parallel primitive arrays and sorts them in place, so no
+ * intermediate map or boxed counts are allocated. Ties keep their order in the JSON.
+ */
+final class MetricEntriesDecoder {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private MetricEntriesDecoder() {
+    }
+
+    static List<MetricEntryResponse> decode(JsonFactory jsonFactory, String json) throws IOException {
+        try (var parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object of metric counts");
+            }
+
+            var keys = new String[INITIAL_CAPACITY];
+            var counts = new long[INITIAL_CAPACITY];
+            var size = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                    counts = Arrays.copyOf(counts, size * 2);
+                }
+                keys[size] = parser.currentName();
+                parser.nextToken();
+                counts[size] = parser.getLongValue();
+                size++;
+            }
+
+            sortByCountDescending(keys, counts, size);
+
+            var entries = new MetricEntryResponse[size];
+            for (int i = 0; i < size; i++) {
+                entries[i] = new MetricEntryResponse(keys[i], counts[i]);
+            }
+            return Arrays.asList(entries);
+        }
+    }
+
+    // Stable, to give the same order as sorting the entries with a comparator.
+    private static void sortByCountDescending(String[] keys, long[] counts, int size) {
+        if (size <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(keys, counts, 0, size);
+            return;
+        }
+
+        for (int start = 0; start < size; start += INSERTION_SORT_THRESHOLD) {
+            insertionSort(keys, counts, start, Math.min(start + INSERTION_SORT_THRESHOLD, size));
+        }
+
+        var keyBuffer = new String[size];
+        var countBuffer = new long[size];
+        for (int width = INSERTION_SORT_THRESHOLD; width < size; width *= 2) {
+            for (int left = 0; left < size - width; left += 2 * width) {
+                merge(keys, counts, keyBuffer, countBuffer, left, left + width, Math.min(left + 2 * width, size));
+            }
+        }
+    }
+
+    private static void insertionSort(String[] keys, long[] counts, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            var key = keys[i];
+            var count = counts[i];
+            var j = i - 1;
+            while (j >= from && counts[j] < count) {
+                keys[j + 1] = keys[j];
+                counts[j + 1] = counts[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            counts[j + 1] = count;
+        }
+    }
+
+    private static void merge(String[] keys, long[] counts, String[] keyBuffer, long[] countBuffer,
+                              int left, int middle, int right) {
+        System.arraycopy(keys, left, keyBuffer, left, right - left);
+        System.arraycopy(counts, left, countBuffer, left, right - left);
+
+        int i = left;
+        int j = middle;
+        int k = left;
+        while (i < middle && j < right) {
+            if (countBuffer[j] > countBuffer[i]) {
+                keys[k] = keyBuffer[j];
+                counts[k++] = countBuffer[j++];
+            } else {
+                keys[k] = keyBuffer[i];
+                counts[k++] = countBuffer[i++];
+            }
+        }
+        while (i < middle) {
+            keys[k] = keyBuffer[i];
+            counts[k++] = countBuffer[i++];
+        }
+        while (j < right) {
+            keys[k] = keyBuffer[j];
+            counts[k++] = countBuffer[j++];
+        }
+    }
+}
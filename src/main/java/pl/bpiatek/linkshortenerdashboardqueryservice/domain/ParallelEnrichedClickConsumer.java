@@ -0,0 +1,177 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.support.Acknowledgment;
+import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans the records of each partition out to virtual threads. Records of one link are chained, so its
+ * updates keep their order, while different links are written concurrently. Offsets are acknowledged
+ * only up to the contiguous prefix of completed records of each partition.
+ */
+class ParallelEnrichedClickConsumer implements ConsumerAwareRebalanceListener, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelEnrichedClickConsumer.class);
+
+    private final DashboardLinkRepository repository;
+    private final HotLinkDetector hotLinkDetector;
+    private final LinkDetailsCache linkDetailsCache;
+    private final LiveClickHub liveClickHub;
+    private final ClickWriteMetrics clickWriteMetrics;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final Duration revokeTimeout;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, CompletableFuture<Void>> linkTails = new ConcurrentHashMap<>();
+    private final Map<TopicPartition, PartitionOffsetTracker> trackers = new ConcurrentHashMap<>();
+    private final Semaphore inFlightPermits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    ParallelEnrichedClickConsumer(DashboardLinkRepository repository,
+                                  HotLinkDetector hotLinkDetector,
+                                  LinkDetailsCache linkDetailsCache,
+                                  LiveClickHub liveClickHub,
+                                  ClickWriteMetrics clickWriteMetrics,
+                                  MeterRegistry meterRegistry,
+                                  int maxInFlight,
+                                  int maxAttempts,
+                                  Duration retryBackoff,
+                                  Duration revokeTimeout) {
+        this.repository = repository;
+        this.hotLinkDetector = hotLinkDetector;
+        this.linkDetailsCache = linkDetailsCache;
+        this.liveClickHub = liveClickHub;
+        this.clickWriteMetrics = clickWriteMetrics;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+        this.revokeTimeout = revokeTimeout;
+        this.inFlightPermits = new Semaphore(maxInFlight);
+
+        Gauge.builder("dashboard.clicks.parallel.in-flight", inFlight, AtomicInteger::get)
+                .description("Number of click events dispatched and not yet written")
+                .register(meterRegistry);
+    }
+
+    @KafkaListener(
+            id = "enriched-clicks",
+            idIsGroup = false,
+            topics = "${topic.analytics.enriched}",
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "linkEnrichedClickEventContainerFactory"
+    )
+    void consume(ConsumerRecord<String, LinkClickEnrichedEvent> record, Acknowledgment acknowledgment)
+            throws InterruptedException {
+        // Blocks the consumer thread once too many events are in flight, so a slow database slows down polling.
+        inFlightPermits.acquire();
+        inFlight.incrementAndGet();
+
+        var partition = new TopicPartition(record.topic(), record.partition());
+        var tracker = trackers.computeIfAbsent(partition, p -> new PartitionOffsetTracker());
+        tracker.register(record.offset(), acknowledgment);
+
+        var event = record.value();
+        Runnable task = () -> {
+            try {
+                write(event, record.timestamp());
+            } finally {
+                inFlight.decrementAndGet();
+                inFlightPermits.release();
+                tracker.complete(record.offset());
+            }
+        };
+
+        // Chained on the completion of the previous task whatever its outcome: a task that failed has already
+        // released its permit and offset, and skipping the ones behind it would stall the partition for good.
+        var linkId = event.getLinkId();
+        var tail = linkTails.compute(linkId, (id, previous) -> previous == null
+                ? CompletableFuture.runAsync(task, executor)
+                : previous.exceptionally(ex -> null).thenRunAsync(task, executor));
+        tail.whenComplete((result, ex) -> {
+            linkTails.remove(linkId, tail);
+            if (ex != null) {
+                log.error("Writing EnrichedClickEvent for link_id '{}' failed. Skipping it.", linkId, ex);
+            }
+        });
+    }
+
+    private void write(LinkClickEnrichedEvent event, long timestamp) {
+        var deltas = ClickDeltas.of(List.of(event), List.of(timestamp));
+        for (int attempt = 1; ; attempt++) {
+            try {
+                hotLinkDetector.assignShards(deltas);
+                clickWriteMetrics.record(deltas.events(), () -> repository.applyClickDeltas(deltas));
+                linkDetailsCache.markClicked(List.of(event.getLinkId()));
+                liveClickHub.publish(deltas);
+                return;
+            } catch (RuntimeException ex) {
+                if (attempt >= maxAttempts) {
+                    // Same outcome as the default error handler of the record mode: log and move past the event.
+                    log.error("Failed to write EnrichedClickEvent for link_id '{}' after {} attempts. Skipping it.",
+                            event.getLinkId(), attempt, ex);
+                    return;
+                }
+                log.warn("Failed to write EnrichedClickEvent for link_id '{}' (attempt {}). Retrying.",
+                        event.getLinkId(), attempt, ex);
+                if (!sleep(retryBackoff)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        // The container commits pending acknowledgments right after this callback, so waiting here
+        // lets the events already dispatched for the revoked partitions be committed by this consumer.
+        for (var partition : partitions) {
+            var tracker = trackers.remove(partition);
+            if (tracker == null) {
+                continue;
+            }
+            try {
+                if (!tracker.awaitDrained(revokeTimeout)) {
+                    log.warn("{} click events of revoked partition {} are still in flight and will be redelivered.",
+                            tracker.inFlight(), partition);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    private static boolean sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Duration;
+import java.util.TreeMap;
+
+/**
+ * Tracks the in-flight records of one partition. Records complete in any order, but only the acknowledgment
+ * closing the contiguous completed prefix is released, so the committed offset never skips an unfinished record.
+ */
+class PartitionOffsetTracker {
+
+    private final TreeMap<Long, Entry> inFlight = new TreeMap<>();
+
+    synchronized void register(long offset, Acknowledgment acknowledgment) {
+        inFlight.put(offset, new Entry(acknowledgment));
+    }
+
+    // Acknowledging under the lock keeps the acknowledgments of one partition in offset order;
+    // off the consumer thread it only enqueues the commit.
+    synchronized void complete(long offset) {
+        var entry = inFlight.get(offset);
+        if (entry == null) {
+            return;
+        }
+        entry.completed = true;
+
+        Acknowledgment prefixEnd = null;
+        while (!inFlight.isEmpty() && inFlight.firstEntry().getValue().completed) {
+            prefixEnd = inFlight.pollFirstEntry().getValue().acknowledgment;
+        }
+        if (prefixEnd != null) {
+            prefixEnd.acknowledge();
+        }
+        if (inFlight.isEmpty()) {
+            notifyAll();
+        }
+    }
+
+    synchronized boolean awaitDrained(Duration timeout) throws InterruptedException {
+        var deadline = System.nanoTime() + timeout.toNanos();
+        while (!inFlight.isEmpty()) {
+            var remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(Math.max(1, remaining / 1_000_000));
+        }
+        return true;
+    }
+
+    synchronized int inFlight() {
+        return inFlight.size();
+    }
+
+    private static final class Entry {
+        private final Acknowledgment acknowledgment;
+        private boolean completed;
+
+        private Entry(Acknowledgment acknowledgment) {
+            this.acknowledgment = acknowledgment;
+        }
+    }
+}
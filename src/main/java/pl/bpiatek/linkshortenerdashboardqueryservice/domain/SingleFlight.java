@@ -0,0 +1,94 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most one query per key at a time: the first caller runs it and concurrent callers with an equal
+ * key wait on its future. Waiting parks instead of holding a lock, so it does not pin virtual threads.
+ * A caller that waits longer than the timeout stops waiting and runs the query itself.
+ */
+class SingleFlight<K, V> {
+
+    private static final Logger log = LoggerFactory.getLogger(SingleFlight.class);
+
+    private final String query;
+    private final Duration timeout;
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter leaders;
+    private final Counter followers;
+    private final Counter timeouts;
+
+    SingleFlight(MeterRegistry meterRegistry, String query, Duration timeout) {
+        this.query = query;
+        this.timeout = timeout;
+        this.leaders = callers(meterRegistry, query, "leader");
+        this.followers = callers(meterRegistry, query, "follower");
+        this.timeouts = Counter.builder("dashboard.reads.single-flight.timeouts")
+                .description("Callers that stopped waiting for an identical in-flight read and ran it themselves")
+                .tag("query", query)
+                .register(meterRegistry);
+    }
+
+    // followers / (leaders + followers) is the share of reads that did not reach the database.
+    private static Counter callers(MeterRegistry meterRegistry, String query, String role) {
+        return Counter.builder("dashboard.reads.single-flight")
+                .description("Dashboard reads by whether they ran the query or shared an identical in-flight one")
+                .tag("query", query)
+                .tag("role", role)
+                .register(meterRegistry);
+    }
+
+    V execute(K key, Supplier<V> loader) {
+        var future = new CompletableFuture<V>();
+        var leader = inFlight.putIfAbsent(key, future);
+        if (leader != null) {
+            followers.increment();
+            return await(leader, loader);
+        }
+
+        leaders.increment();
+        try {
+            var value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private V await(CompletableFuture<V> leader, Supplier<V> loader) {
+        try {
+            return leader.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            timeouts.increment();
+            log.warn("Identical {} read still running after {}. Running it again.", query, timeout);
+            return loader.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (ex.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an identical " + query + " read", ex);
+        }
+    }
+}
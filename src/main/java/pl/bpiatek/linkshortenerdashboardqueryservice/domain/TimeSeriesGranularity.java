@@ -0,0 +1,26 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+public enum TimeSeriesGranularity {
+    HOUR(ChronoUnit.HOURS, Duration.ofDays(31)),
+    DAY(ChronoUnit.DAYS, Duration.ofDays(3 * 366));
+
+    private final ChronoUnit unit;
+    private final Duration maxRange;
+
+    TimeSeriesGranularity(ChronoUnit unit, Duration maxRange) {
+        this.unit = unit;
+        this.maxRange = maxRange;
+    }
+
+    public Instant truncate(Instant instant) {
+        return instant.truncatedTo(unit);
+    }
+
+    public Duration maxRange() {
+        return maxRange;
+    }
+}
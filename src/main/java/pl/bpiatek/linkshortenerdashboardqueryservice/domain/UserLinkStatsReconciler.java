@@ -0,0 +1,56 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Recounts the links of every user in user_link_stats or dashboard_links, repairs counts that drifted,
+ * e.g. after a manual fix in dashboard_links, and creates missing rows. Walks the users in small transactions.
+ */
+class UserLinkStatsReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(UserLinkStatsReconciler.class);
+
+    private final DashboardLinkRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    UserLinkStatsReconciler(DashboardLinkRepository repository, TransactionTemplate transactionTemplate, int batchSize) {
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(
+            initialDelayString = "${dashboard.user-link-stats.reconciliation.interval-ms:86400000}",
+            fixedDelayString = "${dashboard.user-link-stats.reconciliation.interval-ms:86400000}")
+    void scheduledReconciliation() {
+        try {
+            reconcile();
+        } catch (RuntimeException ex) {
+            log.error("Failed to reconcile user link stats. Will retry on next run.", ex);
+        }
+    }
+
+    int reconcile() {
+        var repaired = 0;
+        var lastUserId = "";
+        while (true) {
+            var userIds = repository.findUserIdsAfter(lastUserId, batchSize);
+            if (userIds.isEmpty()) {
+                break;
+            }
+
+            Integer batchRepaired = transactionTemplate.execute(status -> repository.reconcileUserLinkStats(userIds));
+            repaired += batchRepaired == null ? 0 : batchRepaired;
+            lastUserId = userIds.getLast();
+        }
+
+        if (repaired > 0) {
+            log.warn("Repaired drifted link counts of {} users.", repaired);
+        }
+        return repaired;
+    }
+}
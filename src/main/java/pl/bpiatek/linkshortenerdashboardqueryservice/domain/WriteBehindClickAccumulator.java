@@ -0,0 +1,281 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Striped in-memory store of click deltas. Kafka acknowledgments of buffered batches are released
+ * only after the flush containing their events has committed, so a crash replays them instead of losing them.
+ * The buffer is shared by all consumers of the container, so when it has to be discarded, every consumer
+ * seeks back to the first dropped offset of each of its partitions before buffering anything else.
+ */
+class WriteBehindClickAccumulator {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindClickAccumulator.class);
+
+    private final DashboardLinkRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final HotLinkDetector hotLinkDetector;
+    private final LinkDetailsCache linkDetailsCache;
+    private final LiveClickHub liveClickHub;
+    private final int maxPendingEvents;
+    private final Stripe[] stripes;
+
+    // Buffering takes the read lock, draining the stripes takes the write lock, so a drain
+    // never sees the events of a batch without its acknowledgment or vice versa.
+    private final ReentrantReadWriteLock drainLock = new ReentrantReadWriteLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Queue<Acknowledgment> pendingAcks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    // First buffered and not yet flushed offset of each partition.
+    private final Map<TopicPartition, Long> pendingOffsets = new ConcurrentHashMap<>();
+    // First discarded offset of each partition, not yet rewound by the consumer that owns it.
+    private final Map<TopicPartition, Long> rewinds = new ConcurrentHashMap<>();
+    private final Timer flushTimer;
+
+    private ClickDeltas failedDeltas = new ClickDeltas();
+    private List<Acknowledgment> failedAcks = new ArrayList<>();
+    private Map<TopicPartition, Long> failedOffsets = new HashMap<>();
+
+    WriteBehindClickAccumulator(DashboardLinkRepository repository,
+                                TransactionTemplate transactionTemplate,
+                                HotLinkDetector hotLinkDetector,
+                                LinkDetailsCache linkDetailsCache,
+                                LiveClickHub liveClickHub,
+                                MeterRegistry meterRegistry,
+                                int stripeCount,
+                                int maxPendingEvents) {
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.hotLinkDetector = hotLinkDetector;
+        this.linkDetailsCache = linkDetailsCache;
+        this.liveClickHub = liveClickHub;
+        this.maxPendingEvents = maxPendingEvents;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+
+        this.flushTimer = Timer.builder("dashboard.clicks.flush")
+                .description("Time taken to flush buffered click deltas to the database")
+                .register(meterRegistry);
+        Gauge.builder("dashboard.clicks.pending.events", pendingEvents, AtomicInteger::get)
+                .description("Number of click events buffered and not yet flushed")
+                .register(meterRegistry);
+        Gauge.builder("dashboard.clicks.pending.links", this, WriteBehindClickAccumulator::pendingLinks)
+                .description("Number of links with buffered click deltas")
+                .register(meterRegistry);
+    }
+
+    void add(List<ConsumerRecord<String, LinkClickEnrichedEvent>> records,
+             Consumer<?, ?> consumer,
+             Acknowledgment acknowledgment) {
+        // Flush before buffering, so a failing flush rejects this batch for redelivery
+        // instead of leaving it half buffered.
+        if (pendingEvents.get() >= maxPendingEvents) {
+            flush();
+        }
+
+        drainLock.readLock().lock();
+        try {
+            if (rewind(records, consumer)) {
+                return;
+            }
+            for (var record : records) {
+                var event = record.value();
+                stripeFor(event.getLinkId()).add(event, Instant.ofEpochMilli(record.timestamp()));
+                pendingOffsets.merge(new TopicPartition(record.topic(), record.partition()), record.offset(), Math::min);
+            }
+            pendingAcks.add(acknowledgment);
+            pendingEvents.addAndGet(records.size());
+        } finally {
+            drainLock.readLock().unlock();
+        }
+    }
+
+    // The batch is dropped along with the discarded events, and its partitions are rewound too,
+    // so no later acknowledgment of this consumer commits past an event that was never flushed.
+    private boolean rewind(List<ConsumerRecord<String, LinkClickEnrichedEvent>> records, Consumer<?, ?> consumer) {
+        if (rewinds.isEmpty()) {
+            return false;
+        }
+
+        var seeks = new HashMap<TopicPartition, Long>();
+        for (var partition : consumer.assignment()) {
+            var offset = rewinds.remove(partition);
+            if (offset != null) {
+                seeks.put(partition, offset);
+            }
+        }
+        if (seeks.isEmpty()) {
+            return false;
+        }
+
+        for (var record : records) {
+            seeks.merge(new TopicPartition(record.topic(), record.partition()), record.offset(), Math::min);
+        }
+        log.warn("Rewinding {} to replay click events discarded after a failed flush.", seeks);
+        seeks.forEach((partition, offset) -> consumer.seek(partition, offset));
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${dashboard.clicks.write-behind.flush-interval-ms:1000}")
+    void scheduledFlush() {
+        try {
+            flush();
+        } catch (RuntimeException ex) {
+            log.error("Failed to flush buffered click deltas. Will retry on next flush.", ex);
+        }
+    }
+
+    void flush() {
+        flushLock.lock();
+        try {
+            var deltas = failedDeltas;
+            var acks = failedAcks;
+            var offsets = failedOffsets;
+            failedDeltas = new ClickDeltas();
+            failedAcks = new ArrayList<>();
+            failedOffsets = new HashMap<>();
+
+            drainLock.writeLock().lock();
+            try {
+                for (var stripe : stripes) {
+                    deltas.addAll(stripe.drain());
+                }
+                acks.addAll(pendingAcks);
+                pendingAcks.clear();
+                pendingOffsets.forEach((partition, offset) -> offsets.merge(partition, offset, Math::min));
+                pendingOffsets.clear();
+                pendingEvents.set(0);
+            } finally {
+                drainLock.writeLock().unlock();
+            }
+
+            if (deltas.isEmpty() && acks.isEmpty()) {
+                return;
+            }
+
+            hotLinkDetector.assignShards(deltas);
+
+            try {
+                flushTimer.record(() ->
+                        transactionTemplate.executeWithoutResult(status -> repository.applyClickDeltas(deltas)));
+            } catch (RuntimeException ex) {
+                failedDeltas = deltas;
+                failedAcks = acks;
+                failedOffsets = offsets;
+                pendingEvents.addAndGet(deltas.events());
+                throw ex;
+            }
+
+            log.info("Flushed {} buffered click events for {} links.", deltas.events(), deltas.links().size());
+            linkDetailsCache.markClicked(deltas.linkIds());
+            liveClickHub.publish(deltas);
+            acks.forEach(Acknowledgment::acknowledge);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    void discardPending() {
+        flushLock.lock();
+        drainLock.writeLock().lock();
+        try {
+            for (var stripe : stripes) {
+                stripe.drain();
+            }
+            pendingAcks.clear();
+            pendingEvents.set(0);
+            failedOffsets.forEach((partition, offset) -> rewinds.merge(partition, offset, Math::min));
+            pendingOffsets.forEach((partition, offset) -> rewinds.merge(partition, offset, Math::min));
+            pendingOffsets.clear();
+            failedDeltas = new ClickDeltas();
+            failedAcks = new ArrayList<>();
+            failedOffsets = new HashMap<>();
+        } finally {
+            drainLock.writeLock().unlock();
+            flushLock.unlock();
+        }
+    }
+
+    // A partition that changes owner is read again from its committed offset, which already precedes
+    // every discarded event, so its pending rewind would only replay events a second time.
+    void forgetRewinds(Collection<TopicPartition> partitions) {
+        drainLock.writeLock().lock();
+        try {
+            rewinds.keySet().removeAll(partitions);
+        } finally {
+            drainLock.writeLock().unlock();
+        }
+    }
+
+    private Stripe stripeFor(String linkId) {
+        return stripes[Math.floorMod(linkId.hashCode(), stripes.length)];
+    }
+
+    private double pendingLinks() {
+        var links = 0;
+        for (var stripe : stripes) {
+            links += stripe.links();
+        }
+        return links;
+    }
+
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private ClickDeltas deltas = new ClickDeltas();
+
+        void add(LinkClickEnrichedEvent event, Instant clickedAt) {
+            lock.lock();
+            try {
+                deltas.add(event, clickedAt);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        ClickDeltas drain() {
+            lock.lock();
+            try {
+                var drained = deltas;
+                deltas = new ClickDeltas();
+                return drained;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int links() {
+            lock.lock();
+            try {
+                return deltas.links().size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.support.Acknowledgment;
+import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
+
+import java.util.Collection;
+import java.util.List;
+
+class WriteBehindClickConsumer implements ConsumerAwareRebalanceListener {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindClickConsumer.class);
+    private final WriteBehindClickAccumulator accumulator;
+
+    WriteBehindClickConsumer(WriteBehindClickAccumulator accumulator) {
+        this.accumulator = accumulator;
+    }
+
+    @KafkaListener(
+            id = "enriched-clicks",
+            idIsGroup = false,
+            topics = "${topic.analytics.enriched}",
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "linkEnrichedClickEventContainerFactory"
+    )
+    void consume(List<ConsumerRecord<String, LinkClickEnrichedEvent>> records,
+                 Consumer<?, ?> consumer,
+                 Acknowledgment acknowledgment) {
+        log.debug("Buffering {} EnrichedClickEvents.", records.size());
+        accumulator.add(records, consumer, acknowledgment);
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty()) {
+            return;
+        }
+
+        try {
+            accumulator.flush();
+        } catch (RuntimeException ex) {
+            // Nothing buffered has been acknowledged. The revoked partitions are redelivered to their next owner,
+            // the consumers keeping theirs seek back to the first discarded offset before buffering again.
+            log.error("Failed to flush buffered click deltas on revocation of {}. Discarding them for replay.",
+                    partitions, ex);
+            accumulator.discardPending();
+        }
+        accumulator.forgetRewinds(partitions);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        accumulator.forgetRewinds(partitions);
+    }
+}
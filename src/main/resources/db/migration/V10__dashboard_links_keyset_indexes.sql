@@ -0,0 +1,10 @@
+-- Composite indexes for keyset pagination of a user's links. The seek predicate
+-- (sort_key, id) < (:lastValue, :lastId) and the ORDER BY sort_key, id are both served
+-- by a range scan, so deep pages cost the same as the first one.
+-- total_clicks has no index, as it is summed over dashboard_link_counters at read time.
+CREATE INDEX idx_dashboard_links_user_created_at ON dashboard_links (user_id, created_at, id);
+CREATE INDEX idx_dashboard_links_user_short_url ON dashboard_links (user_id, short_url, id);
+CREATE INDEX idx_dashboard_links_user_title ON dashboard_links (user_id, (COALESCE(title, '')), id);
+
+-- Superseded by the user_id prefix of the indexes above.
+DROP INDEX idx_dashboard_links_on_user_id;
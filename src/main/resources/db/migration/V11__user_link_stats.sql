@@ -0,0 +1,12 @@
+-- Per-user link counts, maintained in the same statement as every insert, delete and
+-- activation change of dashboard_links. Serves the total of a links page without a COUNT(*).
+CREATE TABLE user_link_stats (
+    user_id           VARCHAR(255) PRIMARY KEY,
+    link_count        BIGINT NOT NULL DEFAULT 0,
+    active_link_count BIGINT NOT NULL DEFAULT 0
+);
+
+INSERT INTO user_link_stats (user_id, link_count, active_link_count)
+SELECT user_id, COUNT(*), COUNT(*) FILTER (WHERE is_active)
+FROM dashboard_links
+GROUP BY user_id;
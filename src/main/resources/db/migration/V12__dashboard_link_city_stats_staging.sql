@@ -0,0 +1,15 @@
+-- Landing table for city deltas streamed in with COPY. Every flush tags its rows with a batch id
+-- and merges them into dashboard_link_city_stats in one set-based upsert, deleting them in the same statement.
+-- Unlogged: staged rows are deleted by the merge right after the COPY, so they need no WAL.
+CREATE UNLOGGED TABLE dashboard_link_city_stats_staging (
+    batch_id     UUID         NOT NULL,
+    link_id      VARCHAR(255) NOT NULL,
+    country_code VARCHAR(2)   NOT NULL,
+    city_name    VARCHAR(255) NOT NULL,
+    latitude     VARCHAR(255) NOT NULL,
+    longitude    VARCHAR(255) NOT NULL,
+    clicks       BIGINT       NOT NULL
+) WITH (autovacuum_vacuum_scale_factor = 0.01);
+
+CREATE INDEX idx_dashboard_link_city_stats_staging_batch_id
+    ON dashboard_link_city_stats_staging (batch_id);
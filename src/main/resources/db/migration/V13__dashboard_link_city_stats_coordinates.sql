@@ -0,0 +1,31 @@
+-- Coordinates become numbers, so cities can be searched by bounding box and clustered in SQL.
+-- Values that are not valid coordinates become NULL instead of failing the migration; such
+-- cities still count towards the link's city stats but are left off the map.
+ALTER TABLE dashboard_link_city_stats
+    ALTER COLUMN latitude DROP NOT NULL,
+    ALTER COLUMN longitude DROP NOT NULL,
+    ALTER COLUMN latitude TYPE DOUBLE PRECISION USING CASE
+        WHEN latitude ~ '^\s*[-+]?[0-9]+(\.[0-9]+)?\s*$' THEN
+            CASE WHEN abs(latitude::DOUBLE PRECISION) <= 90 THEN latitude::DOUBLE PRECISION END
+        END,
+    ALTER COLUMN longitude TYPE DOUBLE PRECISION USING CASE
+        WHEN longitude ~ '^\s*[-+]?[0-9]+(\.[0-9]+)?\s*$' THEN
+            CASE WHEN abs(longitude::DOUBLE PRECISION) <= 180 THEN longitude::DOUBLE PRECISION END
+        END;
+
+-- (x, y) = (longitude, latitude), NULL when either coordinate is missing.
+ALTER TABLE dashboard_link_city_stats
+    ADD COLUMN location POINT GENERATED ALWAYS AS (point(longitude, latitude)) STORED;
+
+-- btree_gist lets link_id share the GiST index with the location, so a bounding box query of one
+-- link is a single index scan. It is a trusted extension, so the schema owner can create it.
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+CREATE INDEX idx_link_city_stats_link_location
+    ON dashboard_link_city_stats USING gist (link_id, location);
+
+ALTER TABLE dashboard_link_city_stats_staging
+    ALTER COLUMN latitude DROP NOT NULL,
+    ALTER COLUMN longitude DROP NOT NULL,
+    ALTER COLUMN latitude TYPE DOUBLE PRECISION USING NULL,
+    ALTER COLUMN longitude TYPE DOUBLE PRECISION USING NULL;
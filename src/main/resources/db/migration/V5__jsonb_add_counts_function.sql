@@ -0,0 +1,16 @@
+-- Merges two {"key": count} JSONB maps by summing the counts of matching keys.
+-- Used to apply a whole batch of pre-aggregated click deltas to the JSONB
+-- dimension columns of dashboard_links in a single statement.
+CREATE OR REPLACE FUNCTION jsonb_add_counts(counts JSONB, delta JSONB)
+    RETURNS JSONB
+    LANGUAGE sql
+    IMMUTABLE
+AS
+$$
+SELECT COALESCE(jsonb_object_agg(merged.key, merged.clicks), '{}'::jsonb)
+FROM (SELECT entry.key, SUM(entry.value::BIGINT) AS clicks
+      FROM (SELECT * FROM jsonb_each_text(counts)
+            UNION ALL
+            SELECT * FROM jsonb_each_text(delta)) entry
+      GROUP BY entry.key) merged
+$$;
@@ -0,0 +1,20 @@
+-- Additional counter rows for links with a very high click rate. Instead of every consumer
+-- thread queueing on the single dashboard_links row of a viral link, each writer adds its
+-- deltas to one of N shard rows. Readers add the sum of all shards to dashboard_links.
+CREATE TABLE dashboard_link_counter_shards (
+    link_id           VARCHAR(255) NOT NULL REFERENCES dashboard_links (link_id) ON DELETE CASCADE,
+    shard             SMALLINT     NOT NULL,
+    total_clicks      BIGINT       NOT NULL DEFAULT 0,
+    clicks_by_country JSONB        NOT NULL DEFAULT '{}'::jsonb,
+    clicks_by_device  JSONB        NOT NULL DEFAULT '{}'::jsonb,
+    clicks_by_os      JSONB        NOT NULL DEFAULT '{}'::jsonb,
+
+    PRIMARY KEY (link_id, shard)
+);
+
+-- Sums the JSONB dimension maps of all shards of a link.
+CREATE AGGREGATE jsonb_add_counts_agg(JSONB) (
+    SFUNC = jsonb_add_counts,
+    STYPE = JSONB,
+    INITCOND = '{}'
+);
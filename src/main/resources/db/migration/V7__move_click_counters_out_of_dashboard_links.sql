@@ -0,0 +1,31 @@
+-- Click counters move out of the wide dashboard_links row (long_url TEXT, several indexes)
+-- into a narrow table, so a click no longer rewrites link metadata. dashboard_links is now
+-- only modified by lifecycle events. The regular counters of a link live in shard 0, hot
+-- links additionally use shards 1..N.
+ALTER TABLE dashboard_link_counter_shards RENAME TO dashboard_link_counters;
+ALTER TABLE dashboard_link_counters
+    RENAME CONSTRAINT dashboard_link_counter_shards_pkey TO dashboard_link_counters_pkey;
+ALTER TABLE dashboard_link_counters
+    RENAME CONSTRAINT dashboard_link_counter_shards_link_id_fkey TO dashboard_link_counters_link_id_fkey;
+
+-- Leave free space on every page so counter updates can stay HOT (no indexed column changes),
+-- and vacuum the constantly updated rows more eagerly than the default.
+ALTER TABLE dashboard_link_counters SET (
+    fillfactor = 70,
+    autovacuum_vacuum_scale_factor = 0.02,
+    autovacuum_analyze_scale_factor = 0.05
+);
+
+INSERT INTO dashboard_link_counters (link_id, shard, total_clicks, clicks_by_country, clicks_by_device, clicks_by_os)
+SELECT link_id, 0, total_clicks, clicks_by_country, clicks_by_device, clicks_by_os
+FROM dashboard_links
+WHERE total_clicks > 0
+   OR clicks_by_country <> '{}'::jsonb
+   OR clicks_by_device <> '{}'::jsonb
+   OR clicks_by_os <> '{}'::jsonb;
+
+ALTER TABLE dashboard_links
+    DROP COLUMN total_clicks,
+    DROP COLUMN clicks_by_country,
+    DROP COLUMN clicks_by_device,
+    DROP COLUMN clicks_by_os;
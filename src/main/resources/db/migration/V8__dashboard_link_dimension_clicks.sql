@@ -0,0 +1,30 @@
+-- Normalized per-dimension click counters replacing the JSONB maps of dashboard_link_counters.
+-- An increment is a cheap single-row upsert and the counts of one dimension of a link are a
+-- range of the primary key, so top-N queries no longer parse whole JSONB documents.
+-- clicks is deliberately not indexed, so increments stay HOT updates.
+CREATE TABLE dashboard_link_dimension_clicks (
+    link_id   VARCHAR(255) NOT NULL REFERENCES dashboard_links (link_id) ON DELETE CASCADE,
+    dimension VARCHAR(16)  NOT NULL CHECK (dimension IN ('country', 'device', 'os')),
+    key       TEXT         NOT NULL,
+    shard     SMALLINT     NOT NULL DEFAULT 0,
+    clicks    BIGINT       NOT NULL DEFAULT 0,
+
+    PRIMARY KEY (link_id, dimension, key, shard)
+) WITH (
+    fillfactor = 70,
+    autovacuum_vacuum_scale_factor = 0.02,
+    autovacuum_analyze_scale_factor = 0.05
+);
+
+-- Backfill from the JSONB maps. The service dual-writes from this version on
+-- (dashboard.clicks.dimension-storage=DUAL), so both representations stay in sync
+-- until reads are switched over with dashboard.clicks.dimension-storage=NORMALIZED.
+INSERT INTO dashboard_link_dimension_clicks (link_id, dimension, key, shard, clicks)
+SELECT c.link_id, 'country', e.key, c.shard, e.value::BIGINT
+FROM dashboard_link_counters c, jsonb_each_text(c.clicks_by_country) e
+UNION ALL
+SELECT c.link_id, 'device', e.key, c.shard, e.value::BIGINT
+FROM dashboard_link_counters c, jsonb_each_text(c.clicks_by_device) e
+UNION ALL
+SELECT c.link_id, 'os', e.key, c.shard, e.value::BIGINT
+FROM dashboard_link_counters c, jsonb_each_text(c.clicks_by_os) e;
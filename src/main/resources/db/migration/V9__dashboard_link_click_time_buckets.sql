@@ -0,0 +1,31 @@
+-- Hourly click buckets written by the click ingest path, keyed by the Kafka record timestamp.
+-- Time-series reads are range scans of the (link_id, bucket_start) prefix of the primary key.
+-- Buckets of hot links are sharded like dashboard_link_counters.
+CREATE TABLE dashboard_link_clicks_hourly (
+    link_id           VARCHAR(255) NOT NULL REFERENCES dashboard_links (link_id) ON DELETE CASCADE,
+    bucket_start      TIMESTAMPTZ  NOT NULL,
+    shard             SMALLINT     NOT NULL DEFAULT 0,
+    clicks            BIGINT       NOT NULL DEFAULT 0,
+    clicks_by_country JSONB        NOT NULL DEFAULT '{}'::jsonb,
+
+    PRIMARY KEY (link_id, bucket_start, shard)
+) WITH (
+    fillfactor = 70,
+    autovacuum_vacuum_scale_factor = 0.02,
+    autovacuum_analyze_scale_factor = 0.05
+);
+
+-- Lets the compaction job find buckets past the retention window without a full scan.
+-- Rows are inserted roughly in time order, so a BRIN index stays tiny.
+CREATE INDEX idx_dashboard_link_clicks_hourly_bucket_start
+    ON dashboard_link_clicks_hourly USING BRIN (bucket_start);
+
+-- Daily buckets compacted from hourly buckets older than the retention window.
+CREATE TABLE dashboard_link_clicks_daily (
+    link_id           VARCHAR(255) NOT NULL REFERENCES dashboard_links (link_id) ON DELETE CASCADE,
+    bucket_start      TIMESTAMPTZ  NOT NULL,
+    clicks            BIGINT       NOT NULL DEFAULT 0,
+    clicks_by_country JSONB        NOT NULL DEFAULT '{}'::jsonb,
+
+    PRIMARY KEY (link_id, bucket_start)
+);
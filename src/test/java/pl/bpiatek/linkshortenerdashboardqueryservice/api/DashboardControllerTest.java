@@ -1,5 +1,6 @@
 package pl.bpiatek.linkshortenerdashboardqueryservice.api;
 
+import jakarta.servlet.AsyncEvent;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,23 +14,56 @@ import org.springframework.data.domain.Sort;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.mock.web.MockAsyncContext;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.CityClusterResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.ClickBucketResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.ClickTimeSeriesResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.CursorPagedResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinkDetailsResponse;
 import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinksResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.LinkCitiesResponse;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.MetricEntryResponse;
 import pl.bpiatek.linkshortenerdashboardqueryservice.config.TestClockConfiguration;
 import pl.bpiatek.linkshortenerdashboardqueryservice.config.TestSecurityConfiguration;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.BoundingBox;
 import pl.bpiatek.linkshortenerdashboardqueryservice.domain.DashboardFacade;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.ExportFormat;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.InvalidCursorException;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.LinkDimension;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.LinkExport;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.LinkVersion;
+import pl.bpiatek.linkshortenerdashboardqueryservice.domain.TimeSeriesGranularity;
 
+import java.io.OutputStream;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.not;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.springframework.data.domain.Sort.Direction.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(DashboardController.class)
@@ -66,6 +100,287 @@ class DashboardControllerTest {
                 .andExpect(jsonPath("$.totalPages").value(1));
     }
 
+    @Test
+    void shouldReturnTopDimensionsOfLink() throws Exception {
+        // given
+        var userId = "user-1";
+        var details = new DashboardLinkDetailsResponse("link-1", "short", "https://example.com", "title", true,
+                Instant.parse("2025-08-22T10:00:00Z"), Instant.parse("2025-08-22T10:00:00Z"), 5,
+                List.of(new MetricEntryResponse("US", 3), new MetricEntryResponse("other", 2)), null, null, null);
+        given(facade.getLink(userId, "link-1", EnumSet.of(LinkDimension.COUNTRY), 1)).willReturn(Optional.of(details));
+
+        // then
+        mockMvc.perform(get("/dashboard/links/link-1")
+                        .header("X-User-Id", userId)
+                        .param("topN", "1")
+                        .param("include", "country"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.clicksByCountry.length()").value(2))
+                .andExpect(jsonPath("$.clicksByCountry[1].key").value("other"));
+    }
+
+    @Test
+    void shouldAnswerNotModifiedFromLinkVersionWithoutLoadingLink() throws Exception {
+        // given
+        var version = new LinkVersion(Instant.parse("2025-08-22T10:00:00Z"), 5);
+        given(facade.getLinkVersion("user-1", "link-1")).willReturn(Optional.of(version));
+
+        // then
+        mockMvc.perform(get("/dashboard/links/link-1")
+                        .header("X-User-Id", "user-1")
+                        .header("If-None-Match", version.eTag()))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", version.eTag()));
+
+        verify(facade, never()).getLink("user-1", "link-1");
+    }
+
+    @Test
+    void shouldReturnLinkWithETagWhenVersionChanged() throws Exception {
+        // given
+        var updatedAt = Instant.parse("2025-08-22T10:00:00Z");
+        var details = new DashboardLinkDetailsResponse("link-1", "short", "https://example.com", "title", true,
+                updatedAt, updatedAt, 6, List.of(), List.of(), List.of(), List.of());
+        given(facade.getLinkVersion("user-1", "link-1")).willReturn(Optional.of(new LinkVersion(updatedAt, 6)));
+        given(facade.getLink("user-1", "link-1")).willReturn(Optional.of(details));
+
+        // then
+        mockMvc.perform(get("/dashboard/links/link-1")
+                        .header("X-User-Id", "user-1")
+                        .header("If-None-Match", new LinkVersion(updatedAt, 5).eTag()))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", new LinkVersion(updatedAt, 6).eTag()))
+                .andExpect(jsonPath("$.totalClicks").value(6));
+    }
+
+    @Test
+    void shouldAnswerNotModifiedUntilLinksPageChanges() throws Exception {
+        // given
+        var pageable = PageRequest.of(0, 10);
+        var link = aDashboardLinkDto();
+        var clicked = new DashboardLinksResponse(link.id(), link.linkId(), link.userId(), link.shortUrl(),
+                link.longUrl(), link.title(), link.isActive(), link.createdAt(), link.updatedAt(),
+                link.totalClicks() + 1);
+        given(facade.getUserLinks(eq("user-1"), any(Pageable.class))).willReturn(
+                new PageImpl<>(List.of(link), pageable, 1),
+                new PageImpl<>(List.of(link), pageable, 1),
+                new PageImpl<>(List.of(clicked), pageable, 1));
+
+        // when
+        var eTag = mockMvc.perform(get("/dashboard/links").header("X-User-Id", "user-1"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        // then
+        mockMvc.perform(get("/dashboard/links")
+                        .header("X-User-Id", "user-1")
+                        .header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/dashboard/links")
+                        .header("X-User-Id", "user-1")
+                        .header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", not(eTag)))
+                .andExpect(jsonPath("$.content[0].totalClicks").value(link.totalClicks() + 1));
+    }
+
+    @Test
+    void shouldOpenLiveClickStream() throws Exception {
+        // given
+        given(facade.streamClicks("user-1")).willReturn(Optional.of(new SseEmitter()));
+
+        // then
+        mockMvc.perform(get("/dashboard/links/stream")
+                        .header("X-User-Id", "user-1")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted());
+    }
+
+    @Test
+    void shouldRefuseLiveClickStreamAtConnectionLimit() throws Exception {
+        // given
+        given(facade.streamClicks("user-1")).willReturn(Optional.empty());
+
+        // then
+        mockMvc.perform(get("/dashboard/links/stream")
+                        .header("X-User-Id", "user-1")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void shouldReturnDetailsOfRequestedLinks() throws Exception {
+        // given
+        var updatedAt = Instant.parse("2025-08-22T10:00:00Z");
+        var details = new DashboardLinkDetailsResponse("link-2", "short", "https://example.com", "title", true,
+                updatedAt, updatedAt, 4, List.of(), List.of(), List.of(), null);
+        given(facade.getLinks("user-1", List.of("link-2", "link-9"))).willReturn(List.of(details));
+
+        // then
+        mockMvc.perform(post("/dashboard/links/details:batch")
+                        .header("X-User-Id", "user-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"linkIds": ["link-2", "link-9"]}
+                                """))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.links.length()").value(1))
+                .andExpect(jsonPath("$.links[0].linkId").value("link-2"))
+                .andExpect(jsonPath("$.links[0].totalClicks").value(4));
+    }
+
+    @Test
+    void shouldRejectEmptyOversizedOrBlankLinkBatch() throws Exception {
+        var oversized = IntStream.range(0, 101).mapToObj(i -> "\"link-" + i + "\"")
+                .collect(Collectors.joining(",", "{\"linkIds\": [", "]}"));
+
+        mockMvc.perform(post("/dashboard/links/details:batch")
+                        .header("X-User-Id", "user-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"linkIds\": []}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/dashboard/links/details:batch")
+                        .header("X-User-Id", "user-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(oversized))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/dashboard/links/details:batch")
+                        .header("X-User-Id", "user-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"linkIds\": [\"link-1\", null]}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/dashboard/links/details:batch")
+                        .header("X-User-Id", "user-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"linkIds\": [\" \"]}"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(facade);
+    }
+
+    @Test
+    void shouldReturnCityClustersForViewport() throws Exception {
+        // given
+        var box = new BoundingBox(-130, 0, 40, 70);
+        var cities = new LinkCitiesResponse("link-1", 3, List.of(
+                new CityClusterResponse(40.715, -74.0425, 4, 2, null, null),
+                new CityClusterResponse(52.23, 21.01, 2, 1, "PL", "Warsaw")));
+        given(facade.getLinkCities("user-1", "link-1", box, 3, 50)).willReturn(Optional.of(cities));
+
+        // then
+        mockMvc.perform(get("/dashboard/links/link-1/cities")
+                        .header("X-User-Id", "user-1")
+                        .param("zoom", "3")
+                        .param("topN", "50")
+                        .param("west", "-130")
+                        .param("south", "0")
+                        .param("east", "40")
+                        .param("north", "70"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.zoom").value(3))
+                .andExpect(jsonPath("$.clusters.length()").value(2))
+                .andExpect(jsonPath("$.clusters[0].cities").value(2))
+                .andExpect(jsonPath("$.clusters[1].cityName").value("Warsaw"));
+    }
+
+    @Test
+    void shouldRejectIncompleteOrInvalidViewport() throws Exception {
+        mockMvc.perform(get("/dashboard/links/link-1/cities")
+                        .header("X-User-Id", "user-1")
+                        .param("west", "-130")
+                        .param("south", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/dashboard/links/link-1/cities")
+                        .header("X-User-Id", "user-1")
+                        .param("west", "-130")
+                        .param("south", "60")
+                        .param("east", "40")
+                        .param("north", "10"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/dashboard/links/link-1/cities")
+                        .header("X-User-Id", "user-1")
+                        .param("zoom", "23"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(facade);
+    }
+
+    @Test
+    void shouldRejectUnknownDimension() throws Exception {
+        mockMvc.perform(get("/dashboard/links/link-1")
+                        .header("X-User-Id", "user-1")
+                        .param("include", "browser"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(facade);
+    }
+
+    @Test
+    void shouldStreamLinksExportAsAttachment() throws Exception {
+        // given
+        var userId = "user-1";
+        var export = anExport(Duration.ofHours(2));
+        willAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write("link_id\n".getBytes());
+            return null;
+        }).given(export).writeTo(any());
+        given(facade.exportUserLinks(userId, ExportFormat.CSV, true)).willReturn(Optional.of(export));
+
+        // when
+        var asyncResult = mockMvc.perform(get("/dashboard/links/export")
+                        .header("X-User-Id", userId)
+                        .param("format", "CSV")
+                        .param("includeDimensions", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // then
+        mockMvc.perform(asyncDispatch(asyncResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "text/csv"))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"links.csv\""))
+                .andExpect(content().string("link_id\n"));
+    }
+
+    @Test
+    void shouldStreamExportForItsOwnTimeoutAndReleaseItOnTimeout() throws Exception {
+        // given
+        var export = anExport(Duration.ofHours(2));
+        given(facade.exportUserLinks("user-1", ExportFormat.NDJSON, false)).willReturn(Optional.of(export));
+
+        // when
+        var asyncResult = mockMvc.perform(get("/dashboard/links/export")
+                        .header("X-User-Id", "user-1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        var asyncContext = (MockAsyncContext) asyncResult.getRequest().getAsyncContext();
+        var timeout = asyncContext.getTimeout();
+        for (var listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+
+        // then
+        assertThat(timeout).isEqualTo(Duration.ofHours(2).toMillis());
+        verify(export, atLeastOnce()).release();
+    }
+
+    @Test
+    void shouldRejectExportWhileTooManyAreRunning() throws Exception {
+        // given
+        given(facade.exportUserLinks("user-1", ExportFormat.NDJSON, false)).willReturn(Optional.empty());
+
+        // then
+        mockMvc.perform(get("/dashboard/links/export")
+                        .header("X-User-Id", "user-1"))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    private static LinkExport anExport(Duration timeout) {
+        var export = mock(LinkExport.class);
+        given(export.timeout()).willReturn(timeout);
+        return export;
+    }
+
     private DashboardLinksResponse aDashboardLinkDto() {
         return new DashboardLinksResponse(
                 1L,
@@ -137,4 +452,83 @@ class DashboardControllerTest {
                         .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isForbidden());
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldUseCursorPaginationWhenCursorIsGiven() throws Exception {
+        // given
+        var userId = "user-1";
+        var linkDto = aDashboardLinkDto();
+        given(facade.getUserLinks(eq(userId), eq("abc"), any(Pageable.class)))
+                .willReturn(new CursorPagedResponse<>(List.of(linkDto), 10, "def"));
+
+        // then
+        mockMvc.perform(get("/dashboard/links?cursor=abc&size=10&sort=title,asc")
+                        .header("X-User-Id", userId)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].linkId").value(linkDto.linkId()))
+                .andExpect(jsonPath("$.size").value(10))
+                .andExpect(jsonPath("$.nextCursor").value("def"))
+                .andExpect(jsonPath("$.totalElements").doesNotExist());
+    }
+
+    @Test
+    void shouldReturnBadRequestForInvalidCursor() throws Exception {
+        // given
+        given(facade.getUserLinks(eq("user-1"), eq("broken"), any(Pageable.class)))
+                .willThrow(InvalidCursorException.class);
+
+        // then
+        mockMvc.perform(get("/dashboard/links?cursor=broken")
+                        .header("X-User-Id", "user-1")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldReturnLinkTimeSeries() throws Exception {
+        // given
+        var userId = "user-1";
+        var from = Instant.parse("2025-08-20T00:00:00Z");
+        var to = Instant.parse("2025-08-22T00:00:00Z");
+        var response = new ClickTimeSeriesResponse("link-id", "DAY", List.of(
+                new ClickBucketResponse(from, 3, List.of(new MetricEntryResponse("US", 3)))));
+
+        given(facade.getLinkTimeSeries(userId, "link-id", from, to, TimeSeriesGranularity.DAY))
+                .willReturn(Optional.of(response));
+
+        // then
+        mockMvc.perform(get("/dashboard/links/link-id/timeseries?from={from}&to={to}", from, to)
+                        .header("X-User-Id", userId)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.granularity").value("DAY"))
+                .andExpect(jsonPath("$.buckets.length()").value(1))
+                .andExpect(jsonPath("$.buckets[0].clicks").value(3))
+                .andExpect(jsonPath("$.buckets[0].clicksByCountry[0].key").value("US"));
+    }
+
+    @Test
+    void shouldReturnNotFoundForTimeSeriesOfUnknownLink() throws Exception {
+        // given
+        given(facade.getLinkTimeSeries(eq("user-1"), eq("link-id"), any(), any(), any()))
+                .willReturn(Optional.empty());
+
+        // then
+        mockMvc.perform(get("/dashboard/links/link-id/timeseries?from=2025-08-20T00:00:00Z&to=2025-08-22T00:00:00Z&granularity=HOUR")
+                        .header("X-User-Id", "user-1")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldRejectTimeSeriesRangeTooLargeForGranularity() throws Exception {
+        // then
+        mockMvc.perform(get("/dashboard/links/link-id/timeseries?from=2025-01-01T00:00:00Z&to=2025-08-22T00:00:00Z&granularity=HOUR")
+                        .header("X-User-Id", "user-1")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(facade);
+    }
+}
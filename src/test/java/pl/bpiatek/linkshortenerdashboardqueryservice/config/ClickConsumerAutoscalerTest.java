@@ -0,0 +1,186 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.DescribeTopicsResult;
+import org.apache.kafka.clients.admin.ListConsumerGroupOffsetsResult;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.ListOffsetsResult.ListOffsetsResultInfo;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.SoftAssertions.assertSoftly;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class ClickConsumerAutoscalerTest {
+
+    private static final String TOPIC = "analytics-enriched-clicks-events-test";
+    private static final Instant NOW = Instant.parse("2026-10-18T10:00:00Z");
+
+    private final KafkaListenerEndpointRegistry registry = mock(KafkaListenerEndpointRegistry.class);
+    private final ConcurrentMessageListenerContainer<?, ?> container = mock(ConcurrentMessageListenerContainer.class);
+    private final AdminClient adminClient = mock(AdminClient.class);
+    private final Clock clock = mock(Clock.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<TopicPartition, Long> earliest = new HashMap<>();
+    private final Map<TopicPartition, Long> latest = new HashMap<>();
+    private final Map<TopicPartition, OffsetAndMetadata> committed = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        given(registry.getListenerContainer("enriched-clicks")).willReturn(container);
+        given(clock.instant()).willReturn(NOW);
+
+        var offsets = mock(ListConsumerGroupOffsetsResult.class);
+        given(offsets.partitionsToOffsetAndMetadata())
+                .willAnswer(invocation -> KafkaFuture.completedFuture(Map.copyOf(committed)));
+        given(adminClient.listConsumerGroupOffsets(anyString())).willReturn(offsets);
+        given(adminClient.listOffsets(anyMap())).willAnswer(invocation -> {
+            Map<TopicPartition, OffsetSpec> request = invocation.getArgument(0);
+            var result = new HashMap<TopicPartition, ListOffsetsResultInfo>();
+            request.forEach((partition, spec) -> {
+                var source = spec instanceof OffsetSpec.EarliestSpec ? earliest : latest;
+                result.put(partition,
+                        new ListOffsetsResultInfo(source.getOrDefault(partition, 0L), -1, Optional.empty()));
+            });
+            var listed = mock(ListOffsetsResult.class);
+            given(listed.all()).willReturn(KafkaFuture.completedFuture(result));
+            return listed;
+        });
+    }
+
+    @Test
+    void shouldCountLagOfPartitionsWithoutCommittedOffsets() {
+        // given
+        topicWithPartitions(3);
+        committed.put(partition(0), new OffsetAndMetadata(100));
+        latest.put(partition(0), 100L);
+        earliest.put(partition(1), 5L);
+        latest.put(partition(1), 20_005L);
+        latest.put(partition(2), 0L);
+        given(container.getConcurrency()).willReturn(1);
+        var autoscaler = autoscaler("earliest");
+
+        // when
+        autoscaler.evaluate();
+
+        // then
+        verify(container).setConcurrency(2);
+        assertSoftly(s -> s.assertThat(meterRegistry.get("dashboard.kafka.autoscaler.lag").gauge().value())
+                .isEqualTo(20_000.0));
+    }
+
+    @Test
+    void shouldIgnoreUncommittedPartitionsWhenResettingToLatest() {
+        // given
+        topicWithPartitions(2);
+        committed.put(partition(0), new OffsetAndMetadata(100));
+        latest.put(partition(0), 100L);
+        latest.put(partition(1), 20_000L);
+        given(container.getConcurrency()).willReturn(1);
+        var autoscaler = autoscaler("latest");
+
+        // when
+        autoscaler.evaluate();
+
+        // then
+        verify(container, never()).setConcurrency(2);
+        assertSoftly(s -> s.assertThat(meterRegistry.get("dashboard.kafka.autoscaler.lag").gauge().value())
+                .isZero());
+    }
+
+    @Test
+    void shouldBoundConcurrencyByPartitionsOfTopic() {
+        // given
+        topicWithPartitions(2);
+        latest.put(partition(0), 50_000L);
+        latest.put(partition(1), 50_000L);
+        given(container.getConcurrency()).willReturn(2);
+        var autoscaler = autoscaler("earliest");
+
+        // when
+        autoscaler.evaluate();
+
+        // then
+        verify(container, never()).setConcurrency(3);
+    }
+
+    @Test
+    void shouldScaleDownWhileDatabaseIsSlow() {
+        // given
+        topicWithPartitions(4);
+        latest.put(partition(0), 50_000L);
+        given(container.getConcurrency()).willReturn(3);
+        var autoscaler = autoscaler("earliest");
+        meterRegistry.timer("dashboard.clicks.write").record(Duration.ofSeconds(1));
+
+        // when
+        autoscaler.evaluate();
+
+        // then
+        verify(container).setConcurrency(2);
+    }
+
+    @Test
+    void shouldScaleDownWhenIdleAndHoldDuringCooldown() {
+        // given
+        topicWithPartitions(4);
+        given(container.getConcurrency()).willReturn(3);
+        var autoscaler = autoscaler("earliest");
+
+        // when
+        autoscaler.evaluate();
+        given(clock.instant()).willReturn(NOW.plusSeconds(60));
+        autoscaler.evaluate();
+
+        // then
+        verify(container).setConcurrency(2);
+        verify(container, never()).setConcurrency(1);
+    }
+
+    private ClickConsumerAutoscaler autoscaler(String autoOffsetReset) {
+        var kafkaProperties = new KafkaProperties();
+        kafkaProperties.getConsumer().setGroupId("dashboard-test");
+        kafkaProperties.getConsumer().setAutoOffsetReset(autoOffsetReset);
+        return new ClickConsumerAutoscaler(registry, adminClient, meterRegistry, clock, kafkaProperties, TOPIC,
+                1, 4, 10_000, 1_000, Duration.ofMillis(200), Duration.ofMinutes(2));
+    }
+
+    private void topicWithPartitions(int count) {
+        var partitions = IntStream.range(0, count)
+                .mapToObj(partition -> new TopicPartitionInfo(partition, null, List.of(), List.of()))
+                .toList();
+        var described = mock(DescribeTopicsResult.class);
+        given(described.allTopicNames())
+                .willReturn(KafkaFuture.completedFuture(Map.of(TOPIC, new TopicDescription(TOPIC, false, partitions))));
+        given(adminClient.describeTopics(anyCollection())).willReturn(described);
+    }
+
+    private static TopicPartition partition(int partition) {
+        return new TopicPartition(TOPIC, partition);
+    }
+}
@@ -0,0 +1,143 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.SoftAssertions.assertSoftly;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ClickIngestionBackpressureTest {
+
+    private static final Instant START = Instant.parse("2026-10-18T10:00:00Z");
+    private static final Duration SLOW = Duration.ofSeconds(1);
+    private static final Duration FAST = Duration.ofMillis(5);
+
+    private final KafkaListenerEndpointRegistry registry = mock(KafkaListenerEndpointRegistry.class);
+    private final MessageListenerContainer container = mock(MessageListenerContainer.class);
+    private final Clock clock = mock(Clock.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private boolean pauseRequested;
+    private Instant now = START;
+
+    private ClickIngestionBackpressure backpressure;
+
+    @BeforeEach
+    void setUp() {
+        given(registry.getListenerContainer("enriched-clicks")).willReturn(container);
+        given(container.isRunning()).willReturn(true);
+        given(container.isPauseRequested()).willAnswer(invocation -> pauseRequested);
+        willAnswer(invocation -> pauseRequested = true).given(container).pause();
+        willAnswer(invocation -> pauseRequested = false).given(container).resume();
+        given(clock.instant()).willAnswer(invocation -> now);
+
+        backpressure = new ClickIngestionBackpressure(registry, meterRegistry, clock,
+                Duration.ofMillis(250), Duration.ofMillis(100), Duration.ofMillis(50), Duration.ofMillis(10),
+                Duration.ofSeconds(30), Duration.ofSeconds(30), Duration.ofMinutes(2));
+    }
+
+    @Test
+    void shouldPauseOnSlowReadsAndResumeOnceTheyRecover() {
+        // when
+        tick(SLOW);
+        var pausedWhileSlow = pauseRequested;
+        tick(SLOW);
+        tick(FAST);
+
+        // then
+        verify(container).pause();
+        verify(container).resume();
+        assertSoftly(s -> {
+            s.assertThat(pausedWhileSlow).isTrue();
+            s.assertThat(pauseRequested).isFalse();
+            s.assertThat(transitions("pause")).isOne();
+            s.assertThat(transitions("resume")).isOne();
+        });
+    }
+
+    @Test
+    void shouldHoldForcedResumeForResumeWindow() {
+        // given
+        tick(SLOW);
+
+        // when
+        advance(Duration.ofSeconds(30));
+        tick(SLOW);
+        var resumedAfterMaxPause = !pauseRequested;
+        advance(Duration.ofSeconds(29));
+        tick(SLOW);
+        var heldWithinWindow = !pauseRequested;
+        advance(Duration.ofSeconds(2));
+        tick(SLOW);
+
+        // then
+        verify(container, times(2)).pause();
+        assertSoftly(s -> {
+            s.assertThat(resumedAfterMaxPause).isTrue();
+            s.assertThat(heldWithinWindow).isTrue();
+            s.assertThat(pauseRequested).isTrue();
+        });
+    }
+
+    @Test
+    void shouldDoubleResumeWindowOnConsecutiveForcedResumes() {
+        // given
+        tick(SLOW);
+        advance(Duration.ofSeconds(30));
+        tick(SLOW);
+        advance(Duration.ofSeconds(31));
+        tick(SLOW);
+
+        // when
+        advance(Duration.ofSeconds(30));
+        tick(SLOW);
+        advance(Duration.ofSeconds(59));
+        tick(SLOW);
+        var heldWithinDoubledWindow = !pauseRequested;
+        advance(Duration.ofSeconds(2));
+        tick(SLOW);
+
+        // then
+        verify(container, times(3)).pause();
+        assertSoftly(s -> {
+            s.assertThat(heldWithinDoubledWindow).isTrue();
+            s.assertThat(pauseRequested).isTrue();
+        });
+    }
+
+    @Test
+    void shouldNotEvaluateStoppedContainer() {
+        // given
+        given(container.isRunning()).willReturn(false);
+
+        // when
+        tick(SLOW);
+
+        // then
+        verify(container, never()).pause();
+    }
+
+    private void tick(Duration readLatency) {
+        meterRegistry.timer("dashboard.reads").record(readLatency);
+        backpressure.evaluate();
+    }
+
+    private void advance(Duration duration) {
+        now = now.plus(duration);
+    }
+
+    private double transitions(String action) {
+        return meterRegistry.get("dashboard.clicks.backpressure.transitions").tag("action", action).counter().count();
+    }
+}
@@ -0,0 +1,155 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.Network;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.images.builder.Transferable;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.SoftAssertions.assertSoftly;
+import static org.awaitility.Awaitility.await;
+
+@Testcontainers
+class ReplicaRoutingDataSourceTest {
+
+    private static final Network network = Network.newNetwork();
+
+    @Container
+    static PostgreSQLContainer<?> primary = new PostgreSQLContainer<>("postgres:16-alpine")
+            .withNetwork(network)
+            .withNetworkAliases("primary")
+            .withCopyToContainer(
+                    Transferable.of("echo 'host replication all all scram-sha-256' >> \"$PGDATA/pg_hba.conf\""),
+                    "/docker-entrypoint-initdb.d/replication.sh")
+            .withCommand("postgres", "-c", "wal_level=replica", "-c", "max_wal_senders=4");
+
+    @Container
+    static GenericContainer<?> replica = new GenericContainer<>("postgres:16-alpine")
+            .dependsOn(primary)
+            .withNetwork(network)
+            .withEnv("PGPASSWORD", "test")
+            .withExposedPorts(5432)
+            .withCreateContainerCmdModifier(cmd -> cmd.withEntrypoint("sh", "-c"))
+            .withCommand("""
+                    until pg_basebackup -h primary -U test -D "$PGDATA" -R -X stream; do rm -rf "$PGDATA"/*; sleep 1; done
+                    chown -R postgres:postgres "$PGDATA" && chmod 0700 "$PGDATA"
+                    exec su-exec postgres postgres -c hot_standby=on""")
+            .waitingFor(Wait.forLogMessage(".*ready to accept read-only connections.*", 1));
+
+    private HikariDataSource primaryPool;
+    private HikariDataSource replicaPool;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        primaryPool = pool(primary.getJdbcUrl(), "query");
+        replicaPool = pool("jdbc:postgresql://%s:%d/test".formatted(replica.getHost(), replica.getMappedPort(5432)),
+                "query-replica-0");
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        new JdbcTemplate(replicaPool).execute("SELECT pg_wal_replay_resume()");
+        primaryPool.close();
+        replicaPool.close();
+    }
+
+    @Test
+    void shouldRouteReadsToReplicaWithinLagBound() {
+        // given
+        var routing = new ReplicaRoutingDataSource(primaryPool, List.of(replicaPool), Duration.ofSeconds(5), meterRegistry);
+
+        // when
+        await().atMost(Duration.ofSeconds(10)).untilAsserted(() -> {
+            routing.refreshReplayLag();
+            assertThat(meterRegistry.get("dashboard.datasource.replica.lag").gauge().value()).isBetween(0.0, 5.0);
+        });
+        var inRecovery = new JdbcTemplate(routing).queryForObject("SELECT pg_is_in_recovery()", Boolean.class);
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(inRecovery).isTrue();
+            s.assertThat(meterRegistry.get("dashboard.datasource.query.routed").tag("target", "replica").counter().count())
+                    .isOne();
+        });
+    }
+
+    @Test
+    void shouldFallBackToPrimaryWhileReplicaLags() {
+        // given
+        var primaryJdbc = new JdbcTemplate(primaryPool);
+        var replicaJdbc = new JdbcTemplate(replicaPool);
+        primaryJdbc.execute("CREATE TABLE IF NOT EXISTS replay_probe (id BIGINT)");
+        primaryJdbc.update("INSERT INTO replay_probe VALUES (1)");
+        await().atMost(Duration.ofSeconds(10)).until(() ->
+                replicaJdbc.queryForObject("SELECT COUNT(*) FROM replay_probe", Long.class) > 0);
+
+        var routing = new ReplicaRoutingDataSource(primaryPool, List.of(replicaPool), Duration.ofMillis(500), meterRegistry);
+        replicaJdbc.execute("SELECT pg_wal_replay_pause()");
+        primaryJdbc.update("INSERT INTO replay_probe VALUES (2)");
+
+        // when
+        await().atMost(Duration.ofSeconds(10)).untilAsserted(() -> {
+            routing.refreshReplayLag();
+            assertThat(meterRegistry.get("dashboard.datasource.replica.lag").gauge().value()).isGreaterThan(0.5);
+        });
+        var inRecovery = new JdbcTemplate(routing).queryForObject("SELECT pg_is_in_recovery()", Boolean.class);
+
+        // then
+        assertThat(inRecovery).isFalse();
+    }
+
+    @Test
+    void shouldFallBackToPrimaryWhenReplicaStopsReceivingWal() {
+        // given
+        var primaryJdbc = new JdbcTemplate(primaryPool);
+        var replicaJdbc = new JdbcTemplate(replicaPool);
+        var primaryConnInfo = replicaJdbc.queryForObject("SHOW primary_conninfo", String.class);
+        var routing = new ReplicaRoutingDataSource(primaryPool, List.of(replicaPool), Duration.ofMillis(500), meterRegistry);
+
+        try {
+            // A replica without a WAL receiver has replayed everything it received, however far behind it is.
+            replicaJdbc.execute("ALTER SYSTEM SET primary_conninfo = ''");
+            replicaJdbc.execute("SELECT pg_reload_conf()");
+            await().atMost(Duration.ofSeconds(10)).until(() ->
+                    replicaJdbc.queryForObject("SELECT COUNT(*) FROM pg_stat_wal_receiver", Long.class) == 0);
+            primaryJdbc.execute("CREATE TABLE IF NOT EXISTS receive_probe (id BIGINT)");
+            primaryJdbc.update("INSERT INTO receive_probe VALUES (1)");
+
+            // when
+            await().atMost(Duration.ofSeconds(10)).untilAsserted(() -> {
+                routing.refreshReplayLag();
+                assertThat(meterRegistry.get("dashboard.datasource.replica.lag").gauge().value()).isGreaterThan(0.5);
+            });
+            var inRecovery = new JdbcTemplate(routing).queryForObject("SELECT pg_is_in_recovery()", Boolean.class);
+
+            // then
+            assertThat(inRecovery).isFalse();
+        } finally {
+            replicaJdbc.execute("ALTER SYSTEM SET primary_conninfo = '" + primaryConnInfo.replace("'", "''") + "'");
+            replicaJdbc.execute("SELECT pg_reload_conf()");
+        }
+    }
+
+    private static HikariDataSource pool(String jdbcUrl, String poolName) {
+        var dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(jdbcUrl);
+        dataSource.setUsername("test");
+        dataSource.setPassword("test");
+        dataSource.setPoolName(poolName);
+        return dataSource;
+    }
+}
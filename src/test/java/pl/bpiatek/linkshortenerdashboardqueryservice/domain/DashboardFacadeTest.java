@@ -1,5 +1,6 @@
 package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -7,6 +8,9 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinkDetailsResponse;
+
+import java.util.List;
 
 import static org.assertj.core.api.SoftAssertions.assertSoftly;
 
@@ -23,9 +27,17 @@ class DashboardFacadeTest implements WithFullInfrastructure {
     @Autowired
     DashboardLinkFixtures fixtures;
 
+    @Autowired
+    LinkDetailsCache linkDetailsCache;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @AfterEach
     void cleanUp() {
         jdbcTemplate.update("DELETE FROM dashboard_links");
+        jdbcTemplate.update("DELETE FROM user_link_stats");
+        linkDetailsCache.invalidateAll();
     }
 
     @Test
@@ -59,4 +71,79 @@ class DashboardFacadeTest implements WithFullInfrastructure {
         });
     }
 
-}
\ No newline at end of file
+    @Test
+    void shouldServeLinkDetailsFromCacheUntilInvalidated() {
+        // given
+        var link = fixtures.aDashboardLink(TestDashboardLink.builder().title("before").build());
+        facade.getLink(link.getUserId(), link.getLinkId());
+        jdbcTemplate.update("UPDATE dashboard_links SET title = 'after' WHERE link_id = ?", link.getLinkId());
+
+        // when
+        var cached = facade.getLink(link.getUserId(), link.getLinkId());
+        linkDetailsCache.invalidate(link.getLinkId());
+        var reloaded = facade.getLink(link.getUserId(), link.getLinkId());
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(cached).hasValueSatisfying(details -> s.assertThat(details.title()).isEqualTo("before"));
+            s.assertThat(reloaded).hasValueSatisfying(details -> s.assertThat(details.title()).isEqualTo("after"));
+            s.assertThat(meterRegistry.get("cache.gets").tag("cache", "dashboard.link.details")
+                    .tag("result", "hit").functionCounter().count()).isPositive();
+            s.assertThat(meterRegistry.get("dashboard.link.details.cache.weight").gauge().value()).isPositive();
+        });
+    }
+
+    @Test
+    void shouldNotServeCachedLinkDetailsToAnotherUser() {
+        // given
+        var link = fixtures.aDashboardLink(TestDashboardLink.builder().userId("owner").build());
+        facade.getLink("owner", link.getLinkId());
+
+        // when
+        var details = facade.getLink("someone-else", link.getLinkId());
+
+        // then
+        assertSoftly(s -> s.assertThat(details).isEmpty());
+    }
+
+    @Test
+    void shouldLoadBatchMissesWithOneQueryAndKeepRequestedOrder() {
+        // given
+        var cached = fixtures.aDashboardLink(TestDashboardLink.builder().userId("owner").linkId("link-1").build());
+        var missed = fixtures.aDashboardLink(TestDashboardLink.builder().userId("owner").linkId("link-2").build());
+        var foreign = fixtures.aDashboardLink(TestDashboardLink.builder().userId("someone-else").linkId("link-3").build());
+        facade.getLink("owner", cached.getLinkId());
+        var batchReads = meterRegistry.get("dashboard.reads").tag("query", "links-batch").timer();
+        var batchReadsBefore = batchReads.count();
+
+        // when
+        var details = facade.getLinks("owner", List.of(missed.getLinkId(), foreign.getLinkId(),
+                cached.getLinkId(), "missing", missed.getLinkId()));
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(details).extracting(DashboardLinkDetailsResponse::linkId)
+                    .containsExactly(missed.getLinkId(), cached.getLinkId());
+            s.assertThat(batchReads.count()).isEqualTo(batchReadsBefore + 1);
+            s.assertThat(facade.getLinks("owner", List.of(missed.getLinkId()))).hasSize(1);
+            s.assertThat(batchReads.count()).isEqualTo(batchReadsBefore + 1);
+        });
+    }
+
+    @Test
+    void shouldServeReadsFromQueryPool() {
+        // given
+        var link = fixtures.aDashboardLink();
+
+        // when
+        facade.getUserLinks(link.getUserId(), PageRequest.of(0, 10));
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(meterRegistry.get("hikaricp.connections.acquire").tag("pool", "query").timer().count())
+                    .isPositive();
+            s.assertThat(meterRegistry.get("dashboard.reads").tag("query", "links").timer().count())
+                    .isPositive();
+        });
+    }
+}
@@ -22,6 +22,7 @@ class DashboardLinkFixtures {
 
     private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
     private final SimpleJdbcInsert linkInsert;
+    private final SimpleJdbcInsert countersInsert;
     private final ObjectMapper objectMapper;
 
     DashboardLinkFixtures(NamedParameterJdbcTemplate namedParameterJdbcTemplate, ObjectMapper objectMapper) {
@@ -29,6 +30,8 @@ class DashboardLinkFixtures {
         this.linkInsert = new SimpleJdbcInsert(namedParameterJdbcTemplate.getJdbcTemplate())
                 .withTableName("dashboard_links")
                 .usingGeneratedKeyColumns("id");
+        this.countersInsert = new SimpleJdbcInsert(namedParameterJdbcTemplate.getJdbcTemplate())
+                .withTableName("dashboard_link_counters");
         this.objectMapper = objectMapper;
     }
 
@@ -58,14 +61,27 @@ class DashboardLinkFixtures {
                 .addValue("title", link.getTitle())
                 .addValue("isActive", link.isActive())
                 .addValue("createdAt", Timestamp.from(link.getCreatedAt()))
-                .addValue("updatedAt", Timestamp.from(link.getUpdatedAt()))
+                .addValue("updatedAt", Timestamp.from(link.getUpdatedAt()));
+
+        linkInsert.execute(params);
+
+        var counters = new MapSqlParameterSource()
+                .addValue("link_id", link.getLinkId())
+                .addValue("shard", 0)
                 .addValue("total_clicks", link.getTotalClicks())
                 .addValue("clicks_by_country", toJson(link.getClicksByCountry()))
                 .addValue("clicks_by_device", toJson(link.getClicksByDevice()))
                 .addValue("clicks_by_os", toJson(link.getClicksByOs()));
 
+        countersInsert.execute(counters);
 
-        linkInsert.execute(params);
+        namedParameterJdbcTemplate.update("""
+            INSERT INTO user_link_stats (user_id, link_count, active_link_count)
+            VALUES (:userId, 1, CASE WHEN :isActive THEN 1 ELSE 0 END)
+            ON CONFLICT (user_id) DO UPDATE SET
+                link_count = user_link_stats.link_count + 1,
+                active_link_count = user_link_stats.active_link_count + EXCLUDED.active_link_count
+            """, params);
 
         return getByShortUrl(link.getShortUrl());
     }
@@ -87,11 +103,21 @@ class DashboardLinkFixtures {
             dl.is_active,
             dl.created_at,
             dl.updated_at,
-            dl.total_clicks,
-            dl.clicks_by_country,
-            dl.clicks_by_device,
-            dl.clicks_by_os
-            FROM dashboard_links dl WHERE dl.short_url = :shortUrl""";
+            COALESCE(counters.total_clicks, 0) AS total_clicks,
+            counters.clicks_by_country,
+            counters.clicks_by_device,
+            counters.clicks_by_os
+            FROM dashboard_links dl
+            LEFT JOIN LATERAL (
+                SELECT
+                    SUM(c.total_clicks) AS total_clicks,
+                    jsonb_add_counts_agg(c.clicks_by_country) AS clicks_by_country,
+                    jsonb_add_counts_agg(c.clicks_by_device) AS clicks_by_device,
+                    jsonb_add_counts_agg(c.clicks_by_os) AS clicks_by_os
+                FROM dashboard_link_counters c
+                WHERE c.link_id = dl.link_id
+            ) counters ON true
+            WHERE dl.short_url = :shortUrl""";
 
         try {
             return namedParameterJdbcTemplate.queryForObject(
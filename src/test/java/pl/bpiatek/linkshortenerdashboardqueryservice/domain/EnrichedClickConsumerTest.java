@@ -73,4 +73,40 @@ class EnrichedClickConsumerTest implements WithFullInfrastructure {
             });
         });
     }
+
+    @Test
+    void shouldAggregateManyClicksOnTheSameLink() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        var usClick = LinkClickEnrichedEvent.newBuilder()
+                .setLinkId(dashboardLink.getLinkId())
+                .setCountryCode("US")
+                .setDeviceType("Desktop")
+                .setOsName("Windows")
+                .build();
+        var plClick = LinkClickEnrichedEvent.newBuilder()
+                .setLinkId(dashboardLink.getLinkId())
+                .setCountryCode("PL")
+                .setDeviceType("Phone")
+                .setOsName("IOS")
+                .build();
+
+        // when
+        kafkaTemplate.send(topicName, usClick);
+        kafkaTemplate.send(topicName, plClick);
+        kafkaTemplate.send(topicName, usClick);
+
+        // then
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> {
+            var linkByShortUrl = fixtures.getByShortUrl(dashboardLink.getShortUrl());
+            assertThat(linkByShortUrl).isNotNull();
+            assertSoftly(s -> {
+                s.assertThat(linkByShortUrl.getTotalClicks()).isEqualTo(3L);
+                s.assertThat(linkByShortUrl.getClicksByCountry().get("US")).isEqualTo(2L);
+                s.assertThat(linkByShortUrl.getClicksByCountry().get("PL")).isEqualTo(1L);
+                s.assertThat(linkByShortUrl.getClicksByDevice().get("Desktop")).isEqualTo(2L);
+                s.assertThat(linkByShortUrl.getClicksByOs().get("IOS")).isEqualTo(1L);
+            });
+        });
+    }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,19 +12,32 @@ import org.springframework.context.annotation.Import;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.assertj.core.api.Assertions.within;
 import static org.assertj.core.api.SoftAssertions.assertSoftly;
 import static pl.bpiatek.linkshortenerdashboardqueryservice.domain.TestDashboardLink.builder;
 
 @JdbcTest
-@Import({JdbcDashboardLinkRepository.class, DashboardLinkFixtures.class})
+@Import(DashboardLinkFixtures.class)
 @ActiveProfiles("test")
 class JdbcDashboardLinkRepositoryTest implements WithPostgres {
 
+    private static final Instant CLICKED_AT = Instant.parse("2025-08-22T10:15:00Z");
+
     @Autowired
     JdbcTemplate jdbcTemplate;
 
@@ -33,9 +47,14 @@ class JdbcDashboardLinkRepositoryTest implements WithPostgres {
     @Autowired
     DashboardLinkFixtures fixtures;
 
+    @Autowired
+    ObjectMapper objectMapper;
+
     @AfterEach
     void cleanUp() {
         jdbcTemplate.update("DELETE FROM dashboard_links");
+        jdbcTemplate.update("DELETE FROM dashboard_link_city_stats");
+        jdbcTemplate.update("DELETE FROM user_link_stats");
     }
 
     @Test
@@ -131,6 +150,36 @@ class JdbcDashboardLinkRepositoryTest implements WithPostgres {
         assertThat(fromDb).isNull();
     }
 
+    @Test
+    void shouldDeleteClickCountersTogetherWithLink() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink(builder().totalClicks(5).build());
+
+        // when
+        repository.delete(dashboardLink.getLinkId());
+
+        // then
+        var counters = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM dashboard_link_counters WHERE link_id = ?", Long.class, dashboardLink.getLinkId());
+        assertThat(counters).isZero();
+    }
+
+    @Test
+    void shouldNotModifyLinkRowWhenIncrementingCounters() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        var rowVersion = "SELECT xmin::text FROM dashboard_links WHERE link_id = ?";
+        var versionBefore = jdbcTemplate.queryForObject(rowVersion, String.class, dashboardLink.getLinkId());
+
+        // when
+        repository.incrementClickCounters(dashboardLink.getLinkId(), "US", "Desktop", "Windows");
+
+        // then
+        var versionAfter = jdbcTemplate.queryForObject(rowVersion, String.class, dashboardLink.getLinkId());
+        assertThat(versionAfter).isEqualTo(versionBefore);
+        assertThat(fixtures.getByShortUrl(dashboardLink.getShortUrl()).getTotalClicks()).isOne();
+    }
+
     @Test
     void shouldIncrementCountersFromEmpty() {
         // given
@@ -208,6 +257,471 @@ class JdbcDashboardLinkRepositoryTest implements WithPostgres {
         });
     }
 
+    @Test
+    void shouldApplyAggregatedClickDeltasForMultipleLinks() {
+        // given
+        var firstLink = fixtures.aDashboardLink(builder()
+                .linkId("link-1")
+                .shortUrl("short-url-1")
+                .totalClicks(3)
+                .clicksByCountry(Map.of("US", 3L))
+                .build());
+        var secondLink = fixtures.aDashboardLink(builder()
+                .linkId("link-2")
+                .shortUrl("short-url-2")
+                .build());
+
+        var deltas = clickDeltas(
+                aClick(firstLink.getLinkId(), "US", "Desktop", "Windows", "New York"),
+                aClick(firstLink.getLinkId(), "PL", "Phone", "IOS", "Warsaw"),
+                aClick(firstLink.getLinkId(), "US", "Desktop", "Windows", "New York"),
+                aClick(secondLink.getLinkId(), "DE", "Phone", "Android", "Berlin")
+        );
+
+        // when
+        repository.applyClickDeltas(deltas);
+
+        // then
+        var firstFromDb = fixtures.getByShortUrl(firstLink.getShortUrl());
+        var secondFromDb = fixtures.getByShortUrl(secondLink.getShortUrl());
+        assertSoftly(s -> {
+            s.assertThat(firstFromDb.getTotalClicks()).isEqualTo(6L);
+            s.assertThat(firstFromDb.getClicksByCountry()).isEqualTo(Map.of("US", 5L, "PL", 1L));
+            s.assertThat(firstFromDb.getClicksByDevice()).isEqualTo(Map.of("Desktop", 2L, "Phone", 1L));
+            s.assertThat(firstFromDb.getClicksByOs()).isEqualTo(Map.of("Windows", 2L, "IOS", 1L));
+
+            s.assertThat(secondFromDb.getTotalClicks()).isEqualTo(1L);
+            s.assertThat(secondFromDb.getClicksByCountry()).isEqualTo(Map.of("DE", 1L));
+
+            s.assertThat(cityClicks(firstLink.getLinkId(), "New York")).isEqualTo(2L);
+            s.assertThat(cityClicks(firstLink.getLinkId(), "Warsaw")).isEqualTo(1L);
+            s.assertThat(cityClicks(secondLink.getLinkId(), "Berlin")).isEqualTo(1L);
+        });
+    }
+
+    @Test
+    void shouldWriteCountersDimensionsCitiesAndHourlyBucketsTogether() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        var deltas = clickDeltas(
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York"),
+                aClick(dashboardLink.getLinkId(), "PL", "Phone", "IOS", "Warsaw")
+        );
+
+        // when
+        repository.applyClickDeltas(deltas);
+
+        // then
+        var fromDb = fixtures.getByShortUrl(dashboardLink.getShortUrl());
+        var series = repository.findClickTimeSeries(dashboardLink.getUserId(), dashboardLink.getLinkId(),
+                CLICKED_AT.truncatedTo(ChronoUnit.HOURS), CLICKED_AT.plus(1, ChronoUnit.HOURS),
+                TimeSeriesGranularity.HOUR);
+        assertSoftly(s -> {
+            s.assertThat(fromDb.getTotalClicks()).isEqualTo(2L);
+            s.assertThat(dimensionClicks(dashboardLink.getLinkId(), "country", "PL")).isEqualTo(1L);
+            s.assertThat(cityClicks(dashboardLink.getLinkId(), "Warsaw")).isEqualTo(1L);
+            s.assertThat(series).hasValueSatisfying(buckets ->
+                    assertThat(buckets).extracting(ClickBucket::clicks).containsExactly(2L));
+        });
+    }
+
+    @Test
+    void shouldAddClickDeltasToExistingCityStats() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        repository.incrementCityClicks(dashboardLink.getLinkId(), "US", "New York", "40.71", "-74.00");
+
+        var deltas = clickDeltas(
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York"),
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York")
+        );
+
+        // when
+        repository.applyClickDeltas(deltas);
+
+        // then
+        assertThat(cityClicks(dashboardLink.getLinkId(), "New York")).isEqualTo(3L);
+    }
+
+    @Test
+    void shouldMergeCityDeltasStagedWithCopy() {
+        // given
+        var copyRepository = new JdbcDashboardLinkRepository(jdbcTemplate, objectMapper, DimensionStorage.DUAL,
+                new CityStatsCopyWriter(jdbcTemplate,
+                        new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource())),
+                        new SimpleMeterRegistry(), 1));
+        var dashboardLink = fixtures.aDashboardLink();
+        repository.incrementCityClicks(dashboardLink.getLinkId(), "US", "New York", "40.71", "-74.00");
+
+        var deltas = clickDeltas(
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York"),
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York"),
+                aClick(dashboardLink.getLinkId(), "PL", "Phone", "IOS", "Kraków \"Stare, Miasto\"")
+        );
+
+        // when
+        copyRepository.applyClickDeltas(deltas);
+
+        // then
+        var staged = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM dashboard_link_city_stats_staging", Long.class);
+        assertSoftly(s -> {
+            s.assertThat(cityClicks(dashboardLink.getLinkId(), "New York")).isEqualTo(3L);
+            s.assertThat(cityClicks(dashboardLink.getLinkId(), "Kraków \"Stare, Miasto\"")).isEqualTo(1L);
+            s.assertThat(fixtures.getByShortUrl(dashboardLink.getShortUrl()).getTotalClicks()).isEqualTo(3L);
+            s.assertThat(staged).isZero();
+        });
+    }
+
+    @Test
+    void shouldSumCounterShardsWhenReadingLinkDetails() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink(builder()
+                .totalClicks(1)
+                .clicksByCountry(Map.of("US", 1L))
+                .build());
+
+        var firstShard = clickDeltas(
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York"));
+        firstShard.links().forEach(link -> link.assignShard(1));
+        var secondShard = clickDeltas(
+                aClick(dashboardLink.getLinkId(), "PL", "Phone", "IOS", "Warsaw"),
+                aClick(dashboardLink.getLinkId(), "US", "Phone", "IOS", "New York"));
+        secondShard.links().forEach(link -> link.assignShard(2));
+
+        // when
+        repository.applyClickDeltas(firstShard);
+        repository.applyClickDeltas(secondShard);
+
+        // then
+        var details = repository.getByLinkIdAndUser(dashboardLink.getUserId(), dashboardLink.getLinkId());
+        var page = repository.findByUserId(dashboardLink.getUserId(), PageRequest.of(0, 10));
+        assertThat(details).isPresent();
+        assertSoftly(s -> {
+            s.assertThat(details.get().totalClicks()).isEqualTo(4L);
+            s.assertThat(details.get().clicksByCountry()).contains("\"US\": 3", "\"PL\": 1");
+            s.assertThat(details.get().clicksByDevice()).contains("\"Desktop\": 1", "\"Phone\": 2");
+            s.assertThat(page.getContent().getFirst().totalClicks()).isEqualTo(4L);
+        });
+    }
+
+    @Test
+    void shouldSortByTotalClicksIncludingCounterShards() {
+        // given
+        var userId = "user-1";
+        var shardedLink = fixtures.aDashboardLink(builder()
+                .userId(userId)
+                .linkId("link-1")
+                .shortUrl("sharded")
+                .build());
+        fixtures.aDashboardLink(builder()
+                .userId(userId)
+                .linkId("link-2")
+                .shortUrl("plain")
+                .totalClicks(1)
+                .build());
+
+        var deltas = clickDeltas(
+                aClick(shardedLink.getLinkId(), "US", "Desktop", "Windows", "New York"),
+                aClick(shardedLink.getLinkId(), "US", "Desktop", "Windows", "New York"));
+        deltas.links().forEach(link -> link.assignShard(1));
+        repository.applyClickDeltas(deltas);
+
+        // when
+        var page = repository.findByUserId(userId, PageRequest.of(0, 10, Sort.by("total_clicks").descending()));
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(page.getContent().getFirst().linkId()).isEqualTo(shardedLink.getLinkId());
+            s.assertThat(page.getContent().getFirst().totalClicks()).isEqualTo(2L);
+        });
+    }
+
+    @Test
+    void shouldWriteDimensionClicksToJsonbAndTableInDualMode() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        var deltas = clickDeltas(
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York"),
+                aClick(dashboardLink.getLinkId(), "US", "Phone", "IOS", "New York"));
+
+        // when
+        repository.applyClickDeltas(deltas);
+
+        // then
+        var linkByShortUrl = fixtures.getByShortUrl(dashboardLink.getShortUrl());
+        assertSoftly(s -> {
+            s.assertThat(linkByShortUrl.getClicksByCountry()).containsEntry("US", 2L);
+            s.assertThat(dimensionClicks(dashboardLink.getLinkId(), "country", "US")).isEqualTo(2L);
+            s.assertThat(dimensionClicks(dashboardLink.getLinkId(), "device", "Phone")).isEqualTo(1L);
+            s.assertThat(dimensionClicks(dashboardLink.getLinkId(), "os", "Windows")).isEqualTo(1L);
+        });
+    }
+
+    @Test
+    void shouldReadDimensionClicksFromTableInNormalizedMode() {
+        // given
+        var normalizedRepository = new JdbcDashboardLinkRepository(jdbcTemplate, objectMapper, DimensionStorage.NORMALIZED, null);
+        var dashboardLink = fixtures.aDashboardLink();
+        var firstShard = clickDeltas(
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York"));
+        var secondShard = clickDeltas(
+                aClick(dashboardLink.getLinkId(), "US", "Phone", "IOS", "New York"),
+                aClick(dashboardLink.getLinkId(), "PL", "Phone", "IOS", "Warsaw"));
+        secondShard.links().forEach(link -> link.assignShard(3));
+
+        // when
+        normalizedRepository.applyClickDeltas(firstShard);
+        normalizedRepository.incrementClickCounters(dashboardLink.getLinkId(), "PL", "Desktop", "Linux");
+        normalizedRepository.applyClickDeltas(secondShard);
+
+        // then
+        var details = normalizedRepository.getByLinkIdAndUser(dashboardLink.getUserId(), dashboardLink.getLinkId());
+        var linkByShortUrl = fixtures.getByShortUrl(dashboardLink.getShortUrl());
+        assertThat(details).isPresent();
+        assertSoftly(s -> {
+            s.assertThat(details.get().totalClicks()).isEqualTo(4L);
+            s.assertThat(details.get().clicksByCountry()).contains("\"US\": 2", "\"PL\": 2");
+            s.assertThat(details.get().clicksByDevice()).contains("\"Desktop\": 2", "\"Phone\": 2");
+            s.assertThat(details.get().clicksByOs()).contains("\"IOS\": 2", "\"Linux\": 1");
+            s.assertThat(linkByShortUrl.getClicksByCountry()).isEmpty();
+        });
+    }
+
+    @Test
+    void shouldReturnEmptyDimensionsFromTableForLinkWithoutClicks() {
+        // given
+        var normalizedRepository = new JdbcDashboardLinkRepository(jdbcTemplate, objectMapper, DimensionStorage.NORMALIZED, null);
+        var dashboardLink = fixtures.aDashboardLink();
+
+        // when
+        var details = normalizedRepository.getByLinkIdAndUser(dashboardLink.getUserId(), dashboardLink.getLinkId());
+
+        // then
+        assertThat(details).isPresent();
+        assertSoftly(s -> {
+            s.assertThat(details.get().totalClicks()).isZero();
+            s.assertThat(details.get().clicksByCountry()).isEqualTo("{}");
+        });
+    }
+
+    @Test
+    void shouldReturnTopDimensionsWithRemainderComputedInDatabase() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        repository.applyClickDeltas(clickDeltas(
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York"),
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York"),
+                aClick(dashboardLink.getLinkId(), "US", "Phone", "IOS", "Boston"),
+                aClick(dashboardLink.getLinkId(), "PL", "Phone", "IOS", "Warsaw"),
+                aClick(dashboardLink.getLinkId(), "PL", "Phone", "Android", "Warsaw"),
+                aClick(dashboardLink.getLinkId(), "DE", "Tablet", "Android", "Berlin"),
+                aClick(dashboardLink.getLinkId(), "FR", "Tablet", "Android", "Paris")
+        ));
+
+        // when
+        var details = repository.getByLinkIdAndUser(dashboardLink.getUserId(), dashboardLink.getLinkId(),
+                EnumSet.of(LinkDimension.COUNTRY, LinkDimension.CITY), 2);
+
+        // then
+        assertThat(details).isPresent();
+        assertSoftly(s -> {
+            s.assertThat(details.get().details().totalClicks()).isEqualTo(7L);
+            s.assertThat(details.get().dimensions()).containsOnlyKeys(LinkDimension.COUNTRY, LinkDimension.CITY);
+            s.assertThat(details.get().dimensions().get(LinkDimension.COUNTRY)).containsExactly(
+                    new DimensionClick("US", 3), new DimensionClick("PL", 2), new DimensionClick(null, 2));
+            s.assertThat(details.get().dimensions().get(LinkDimension.CITY)).containsExactly(
+                    new DimensionClick("PL:Warsaw", 2), new DimensionClick("US:New York", 2), new DimensionClick(null, 3));
+        });
+    }
+
+    @Test
+    void shouldRankSameNamedCitiesOfDifferentCountriesApart() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        repository.applyClickDeltas(clickDeltas(
+                aClick(dashboardLink.getLinkId(), "FR", "Desktop", "Windows", "Paris"),
+                aClick(dashboardLink.getLinkId(), "FR", "Desktop", "Windows", "Paris"),
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "Paris"),
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "Paris"),
+                aClick(dashboardLink.getLinkId(), "DE", "Desktop", "Windows", "Berlin"),
+                aClick(dashboardLink.getLinkId(), "DE", "Desktop", "Windows", "Berlin"),
+                aClick(dashboardLink.getLinkId(), "DE", "Desktop", "Windows", "Berlin")
+        ));
+
+        // when
+        var details = repository.getByLinkIdAndUser(dashboardLink.getUserId(), dashboardLink.getLinkId(),
+                EnumSet.of(LinkDimension.CITY), 2);
+
+        // then
+        assertThat(details).hasValueSatisfying(link -> assertThat(link.dimensions().get(LinkDimension.CITY))
+                .containsExactly(new DimensionClick("DE:Berlin", 3), new DimensionClick("FR:Paris", 2),
+                        new DimensionClick(null, 2)));
+    }
+
+    @Test
+    void shouldReturnTopDimensionsFromTableInNormalizedMode() {
+        // given
+        var normalizedRepository = new JdbcDashboardLinkRepository(jdbcTemplate, objectMapper, DimensionStorage.NORMALIZED, null);
+        var dashboardLink = fixtures.aDashboardLink();
+        normalizedRepository.applyClickDeltas(clickDeltas(
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York"),
+                aClick(dashboardLink.getLinkId(), "PL", "Phone", "IOS", "Warsaw"),
+                aClick(dashboardLink.getLinkId(), "PL", "Phone", "IOS", "Warsaw")
+        ));
+
+        // when
+        var details = normalizedRepository.getByLinkIdAndUser(dashboardLink.getUserId(), dashboardLink.getLinkId(),
+                EnumSet.of(LinkDimension.DEVICE), 5);
+
+        // then
+        assertThat(details).hasValueSatisfying(link -> assertThat(link.dimensions().get(LinkDimension.DEVICE))
+                .containsExactly(new DimensionClick("Phone", 2), new DimensionClick("Desktop", 1)));
+    }
+
+    @Test
+    void shouldListTopCitiesAndClusterThemInsideBoundingBox() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        var linkId = dashboardLink.getLinkId();
+        for (int i = 0; i < 3; i++) {
+            repository.incrementCityClicks(linkId, "US", "New York", "40.71", "-74.00");
+        }
+        repository.incrementCityClicks(linkId, "US", "Newark", "40.73", "-74.17");
+        repository.incrementCityClicks(linkId, "PL", "Warsaw", "52.23", "21.01");
+        repository.incrementCityClicks(linkId, "PL", "Warsaw", "52.23", "21.01");
+        repository.incrementCityClicks(linkId, "AU", "Sydney", "-33.87", "151.21");
+        for (int i = 0; i < 5; i++) {
+            repository.incrementCityClicks(linkId, "XX", "Nowhere", "n/a", "");
+        }
+
+        // when
+        var top = repository.findCityClusters(dashboardLink.getUserId(), linkId, null, null, 2);
+        var clustered = repository.findCityClusters(dashboardLink.getUserId(), linkId,
+                new BoundingBox(-130, 0, 40, 70), 3, 10);
+        var acrossAntimeridian = repository.findCityClusters(dashboardLink.getUserId(), linkId,
+                new BoundingBox(150, -40, -60, 50), null, 10);
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(top).hasValueSatisfying(cities -> assertThat(cities).containsExactly(
+                    new CityCluster(null, null, 5, 1, "XX", "Nowhere"),
+                    new CityCluster(40.71, -74.00, 3, 1, "US", "New York")));
+            s.assertThat(clustered).hasValueSatisfying(clusters -> {
+                assertThat(clusters).extracting(CityCluster::clicks, CityCluster::cities, CityCluster::cityName)
+                        .containsExactly(tuple(4L, 2, null), tuple(2L, 1, "Warsaw"));
+                assertThat(clusters.getFirst().latitude()).isCloseTo(40.715, within(1e-9));
+                assertThat(clusters.getFirst().longitude()).isCloseTo(-74.0425, within(1e-9));
+            });
+            s.assertThat(acrossAntimeridian).hasValueSatisfying(cities ->
+                    assertThat(cities).extracting(CityCluster::cityName)
+                            .containsExactly("New York", "Sydney", "Newark"));
+            s.assertThat(repository.findCityClusters("someone-else", linkId, null, null, 10)).isEmpty();
+        });
+    }
+
+    @Test
+    void shouldTakeCoordinatesFromLaterClickWhenCityHadNone() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        repository.incrementCityClicks(dashboardLink.getLinkId(), "PL", "Warsaw", "", "");
+
+        // when
+        repository.applyClickDeltas(clickDeltas(aClick(dashboardLink.getLinkId(), "PL", "Phone", "IOS", "Warsaw")));
+
+        // then
+        var city = jdbcTemplate.queryForMap(
+                "SELECT latitude, longitude, location IS NOT NULL AS located, clicks FROM dashboard_link_city_stats"
+                        + " WHERE link_id = ?", dashboardLink.getLinkId());
+        assertSoftly(s -> {
+            s.assertThat(city.get("latitude")).isEqualTo(40.71);
+            s.assertThat(city.get("longitude")).isEqualTo(-74.00);
+            s.assertThat(city.get("located")).isEqualTo(true);
+            s.assertThat(city.get("clicks")).isEqualTo(2L);
+        });
+    }
+
+    @Test
+    void shouldBucketClicksByHourAcrossShards() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        var firstShard = clickDeltasAt(Instant.parse("2025-08-22T10:15:00Z"),
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York"));
+        var secondShard = clickDeltasAt(Instant.parse("2025-08-22T10:59:59Z"),
+                aClick(dashboardLink.getLinkId(), "PL", "Phone", "IOS", "Warsaw"));
+        secondShard.links().forEach(link -> link.assignShard(2));
+        var nextHour = clickDeltasAt(Instant.parse("2025-08-22T11:00:00Z"),
+                aClick(dashboardLink.getLinkId(), "US", "Phone", "IOS", "New York"));
+
+        // when
+        repository.applyClickDeltas(firstShard);
+        repository.applyClickDeltas(secondShard);
+        repository.applyClickDeltas(nextHour);
+
+        // then
+        var series = repository.findClickTimeSeries(dashboardLink.getUserId(), dashboardLink.getLinkId(),
+                Instant.parse("2025-08-22T00:00:00Z"), Instant.parse("2025-08-23T00:00:00Z"),
+                TimeSeriesGranularity.HOUR);
+        assertThat(series).isPresent();
+        assertSoftly(s -> {
+            s.assertThat(series.get()).extracting(ClickBucket::bucketStart).containsExactly(
+                    Instant.parse("2025-08-22T10:00:00Z"), Instant.parse("2025-08-22T11:00:00Z"));
+            s.assertThat(series.get()).extracting(ClickBucket::clicks).containsExactly(2L, 1L);
+            s.assertThat(series.get().getFirst().clicksByCountry()).contains("\"US\": 1", "\"PL\": 1");
+        });
+    }
+
+    @Test
+    void shouldServeDailySeriesFromCompactedAndHourlyBuckets() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        repository.applyClickDeltas(clickDeltasAt(Instant.parse("2025-08-20T10:15:00Z"),
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York")));
+        repository.applyClickDeltas(clickDeltasAt(Instant.parse("2025-08-20T18:15:00Z"),
+                aClick(dashboardLink.getLinkId(), "PL", "Desktop", "Windows", "Warsaw")));
+        repository.applyClickDeltas(clickDeltasAt(Instant.parse("2025-08-21T09:00:00Z"),
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York")));
+
+        // when
+        var moved = repository.compactHourlyClicks(Instant.parse("2025-08-21T00:00:00Z"), 1);
+        moved += repository.compactHourlyClicks(Instant.parse("2025-08-21T00:00:00Z"), 1);
+        repository.applyClickDeltas(clickDeltasAt(Instant.parse("2025-08-20T23:00:00Z"),
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York")));
+
+        // then
+        var series = repository.findClickTimeSeries(dashboardLink.getUserId(), dashboardLink.getLinkId(),
+                Instant.parse("2025-08-20T00:00:00Z"), Instant.parse("2025-08-22T00:00:00Z"),
+                TimeSeriesGranularity.DAY);
+        var hourlyRows = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM dashboard_link_clicks_hourly WHERE link_id = ?",
+                Long.class, dashboardLink.getLinkId());
+        assertThat(series).isPresent();
+        var movedBuckets = moved;
+        assertSoftly(s -> {
+            s.assertThat(movedBuckets).isEqualTo(2);
+            s.assertThat(hourlyRows).isEqualTo(2L);
+            s.assertThat(series.get()).extracting(ClickBucket::bucketStart).containsExactly(
+                    Instant.parse("2025-08-20T00:00:00Z"), Instant.parse("2025-08-21T00:00:00Z"));
+            s.assertThat(series.get()).extracting(ClickBucket::clicks).containsExactly(3L, 1L);
+            s.assertThat(series.get().getFirst().clicksByCountry()).contains("\"US\": 2", "\"PL\": 1");
+        });
+    }
+
+    @Test
+    void shouldNotReturnTimeSeriesOfAnotherUsersLink() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink(builder().userId("owner").build());
+        repository.applyClickDeltas(clickDeltas(
+                aClick(dashboardLink.getLinkId(), "US", "Desktop", "Windows", "New York")));
+
+        // when
+        var series = repository.findClickTimeSeries("someone-else", dashboardLink.getLinkId(),
+                Instant.parse("2025-08-22T00:00:00Z"), Instant.parse("2025-08-23T00:00:00Z"),
+                TimeSeriesGranularity.DAY);
+
+        // then
+        assertThat(series).isEmpty();
+    }
+
     @Test
     void shouldFindLinksByUserId() {
         // given
@@ -320,6 +834,343 @@ class JdbcDashboardLinkRepositoryTest implements WithPostgres {
         });
     }
 
+    @Test
+    void shouldSeekThroughLinksWithSameSortKeyWithoutGapsOrDuplicates() {
+        // given
+        var userId = "user-1";
+        var sameTime = Instant.parse("2025-08-22T10:00:00Z");
+        for (int i = 1; i <= 5; i++) {
+            fixtures.aDashboardLink(builder()
+                    .userId(userId)
+                    .linkId("link-" + i)
+                    .shortUrl("short-" + i)
+                    .createdAt(i <= 3 ? sameTime : sameTime.plusSeconds(i))
+                    .build());
+        }
+        var cursor = LinkCursor.first(Sort.by("created_at").descending());
+
+        // when
+        var firstPage = repository.findByUserIdAfter(userId, cursor, 2);
+        var secondPage = repository.findByUserIdAfter(userId, cursor.after(firstPage.getLast()), 2);
+        var thirdPage = repository.findByUserIdAfter(userId, cursor.after(secondPage.getLast()), 2);
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(firstPage).extracting(DashboardLink::linkId).containsExactly("link-5", "link-4");
+            s.assertThat(secondPage).extracting(DashboardLink::linkId).containsExactly("link-3", "link-2");
+            s.assertThat(thirdPage).extracting(DashboardLink::linkId).containsExactly("link-1");
+        });
+    }
+
+    @Test
+    void shouldSeekByTitleTreatingMissingTitleAsEmpty() {
+        // given
+        var userId = "user-1";
+        fixtures.aDashboardLink(builder().userId(userId).linkId("link-1").shortUrl("s-1").title("b").build());
+        fixtures.aDashboardLink(builder().userId(userId).linkId("link-2").shortUrl("s-2").title(null).build());
+        fixtures.aDashboardLink(builder().userId(userId).linkId("link-3").shortUrl("s-3").title("a").build());
+        var cursor = LinkCursor.first(Sort.by("title").ascending());
+
+        // when
+        var firstPage = repository.findByUserIdAfter(userId, cursor, 1);
+        var rest = repository.findByUserIdAfter(userId, cursor.after(firstPage.getLast()), 10);
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(firstPage).extracting(DashboardLink::linkId).containsExactly("link-2");
+            s.assertThat(rest).extracting(DashboardLink::linkId).containsExactly("link-3", "link-1");
+        });
+    }
+
+    @Test
+    void shouldSeekByTotalClicks() {
+        // given
+        var userId = "user-1";
+        fixtures.aDashboardLink(builder().userId(userId).linkId("link-1").shortUrl("s-1").totalClicks(5).build());
+        fixtures.aDashboardLink(builder().userId(userId).linkId("link-2").shortUrl("s-2").totalClicks(1).build());
+        fixtures.aDashboardLink(builder().userId(userId).linkId("link-3").shortUrl("s-3").totalClicks(3).build());
+        var cursor = LinkCursor.first(Sort.by("total_clicks").descending());
+
+        // when
+        var firstPage = repository.findByUserIdAfter(userId, cursor, 1);
+        var rest = repository.findByUserIdAfter(userId, LinkCursor.decode(cursor.after(firstPage.getLast()).encode()), 10);
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(firstPage).extracting(DashboardLink::linkId).containsExactly("link-1");
+            s.assertThat(rest).extracting(DashboardLink::linkId).containsExactly("link-3", "link-2");
+        });
+    }
+
+    @Test
+    void shouldMaintainUserLinkStatsOnCreateUpdateAndDelete() {
+        // given
+        var now = Instant.parse("2025-08-22T10:00:00Z");
+        var first = new DashboardLink(null, "link-1", "user-1", "short-1", "longUrl", "title", true, now, now, 0);
+        var second = new DashboardLink(null, "link-2", "user-1", "short-2", "longUrl", "title", true, now, now, 0);
+
+        // when
+        repository.create(first);
+        repository.create(second);
+        repository.create(second);
+        repository.update(new DashboardLink(null, "link-2", "user-1", "short-2", "longUrl", "title", false, now, now, 0));
+        repository.update(new DashboardLink(null, "link-2", "user-1", "short-2", "longUrl", "title", false, now, now, 0));
+        repository.delete("link-1");
+        repository.delete("link-1");
+
+        // then
+        var stats = jdbcTemplate.queryForMap(
+                "SELECT link_count, active_link_count FROM user_link_stats WHERE user_id = ?", "user-1");
+        var page = repository.findByUserId("user-1", PageRequest.of(0, 10));
+        assertSoftly(s -> {
+            s.assertThat(stats.get("link_count")).isEqualTo(1L);
+            s.assertThat(stats.get("active_link_count")).isEqualTo(0L);
+            s.assertThat(page.getTotalElements()).isOne();
+        });
+    }
+
+    @Test
+    void shouldChangeLinkVersionOnClicksAndUpdates() {
+        // given
+        var now = Instant.parse("2025-08-22T10:00:00Z");
+        repository.create(new DashboardLink(null, "link-1", "user-1", "short-1", "longUrl", "title", true, now, now, 0));
+        var initialLink = repository.findLinkVersion("user-1", "link-1").orElseThrow();
+
+        // when
+        repository.incrementClickCounters("link-1", "US", "Desktop", "Windows");
+        var clickedLink = repository.findLinkVersion("user-1", "link-1").orElseThrow();
+        repository.update(new DashboardLink(null, "link-1", "user-1", "short-1", "longUrl", "renamed", true, now,
+                now.plusSeconds(1), 0));
+        var updatedLink = repository.findLinkVersion("user-1", "link-1").orElseThrow();
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(initialLink).isEqualTo(new LinkVersion(now, 0));
+            s.assertThat(clickedLink.eTag()).isNotEqualTo(initialLink.eTag());
+            s.assertThat(updatedLink).isEqualTo(new LinkVersion(now.plusSeconds(1), 1));
+            s.assertThat(repository.findLinkVersion("user-2", "link-1")).isEmpty();
+        });
+    }
+
+    @Test
+    void shouldFindClickTotalsWithOwnersAcrossShards() {
+        // given
+        var now = Instant.parse("2025-08-22T10:00:00Z");
+        repository.create(new DashboardLink(null, "link-1", "user-1", "short-1", "longUrl", "title", true, now, now, 0));
+        repository.create(new DashboardLink(null, "link-2", "user-2", "short-2", "longUrl", "title", true, now, now, 0));
+        var deltas = new ClickDeltas();
+        deltas.addClick("link-1", "US", "Desktop", "Windows");
+        deltas.addClick("link-1", "US", "Desktop", "Windows");
+        repository.applyClickDeltas(deltas);
+        var shardedDeltas = new ClickDeltas();
+        shardedDeltas.addClick("link-1", "DE", "Phone", "iOS");
+        shardedDeltas.links().forEach(link -> link.assignShard(3));
+        repository.applyClickDeltas(shardedDeltas);
+
+        // when
+        var totals = repository.findClickTotals(List.of("link-1", "link-2", "missing"));
+
+        // then
+        assertThat(totals).containsExactlyInAnyOrder(
+                new LinkClickTotal("link-1", "user-1", 3),
+                new LinkClickTotal("link-2", "user-2", 0));
+    }
+
+    @Test
+    void shouldFindDetailsOfOwnedLinksOnly() {
+        // given
+        var now = Instant.parse("2025-08-22T10:00:00Z");
+        repository.create(new DashboardLink(null, "link-1", "user-1", "short-1", "longUrl", "title", true, now, now, 0));
+        repository.create(new DashboardLink(null, "link-2", "user-1", "short-2", "longUrl", "title", true, now, now, 0));
+        repository.create(new DashboardLink(null, "link-3", "user-2", "short-3", "longUrl", "title", true, now, now, 0));
+        repository.incrementClickCounters("link-2", "US", "Desktop", "Windows");
+
+        // when
+        var details = repository.findByLinkIdsAndUser("user-1", List.of("link-2", "link-3", "missing", "link-1"));
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(details).extracting(DashboardLinkDetails::linkId).containsExactlyInAnyOrder("link-1", "link-2");
+            s.assertThat(details).filteredOn(link -> link.linkId().equals("link-2"))
+                    .singleElement()
+                    .satisfies(link -> {
+                        s.assertThat(link.totalClicks()).isOne();
+                        s.assertThat(link.clicksByCountry()).contains("\"US\"");
+                    });
+        });
+    }
+
+    @Test
+    void shouldApplyNetEffectOfCollapsedLifecycleEvents() {
+        // given
+        var now = Instant.parse("2025-08-22T10:00:00Z");
+        var later = now.plusSeconds(60);
+        fixtures.aDashboardLink(builder().userId("user-1").linkId("existing").shortUrl("existing").isActive(true).build());
+        fixtures.aDashboardLink(builder().userId("user-1").linkId("recreated").shortUrl("recreated").title("old").build());
+
+        var changes = new LinkLifecycleChanges();
+        changes.created(aLink("transient", "user-1", "long", "title", true, now));
+        changes.updated(aLink("transient", "user-1", "long", "title", false, later));
+        changes.deleted("transient");
+        changes.created(aLink("created", "user-1", "long", "title", true, now));
+        changes.updated(aLink("created", "user-1", "updated-long", "updated-title", false, later));
+        changes.updated(aLink("existing", "user-1", "long", "renamed", false, later));
+        changes.deleted("recreated");
+        changes.created(aLink("recreated", "user-1", "long", "new", true, now));
+
+        // when
+        repository.applyLifecycleChanges(changes);
+
+        // then
+        var links = jdbcTemplate.queryForMap("SELECT COUNT(*) AS links FROM dashboard_links WHERE link_id = 'transient'");
+        var created = repository.getByLinkIdAndUser("user-1", "created");
+        var existing = repository.getByLinkIdAndUser("user-1", "existing");
+        var recreated = repository.getByLinkIdAndUser("user-1", "recreated");
+        var stats = jdbcTemplate.queryForMap(
+                "SELECT link_count, active_link_count FROM user_link_stats WHERE user_id = ?", "user-1");
+        assertSoftly(s -> {
+            s.assertThat(changes.events()).isEqualTo(8);
+            s.assertThat(links.get("links")).isEqualTo(0L);
+            s.assertThat(created).hasValueSatisfying(link -> {
+                s.assertThat(link.title()).isEqualTo("updated-title");
+                s.assertThat(link.longUrl()).isEqualTo("updated-long");
+                s.assertThat(link.isActive()).isFalse();
+                s.assertThat(link.createdAt()).isEqualTo(now);
+                s.assertThat(link.updatedAt()).isEqualTo(later);
+            });
+            s.assertThat(existing).hasValueSatisfying(link -> s.assertThat(link.title()).isEqualTo("renamed"));
+            s.assertThat(recreated).hasValueSatisfying(link -> s.assertThat(link.title()).isEqualTo("new"));
+            s.assertThat(stats.get("link_count")).isEqualTo(3L);
+            s.assertThat(stats.get("active_link_count")).isEqualTo(1L);
+        });
+    }
+
+    @Test
+    void shouldApplyUpdateFoldedIntoRedeliveredCreate() {
+        // given
+        var now = Instant.parse("2025-08-22T10:00:00Z");
+        fixtures.aDashboardLink(builder().userId("user-1").linkId("link-1").shortUrl("short-1").title("old").build());
+
+        var changes = new LinkLifecycleChanges();
+        changes.created(aLink("link-1", "user-1", "long", "old", true, now));
+        changes.updated(aLink("link-1", "user-1", "long", "new", true, now.plusSeconds(60)));
+
+        // when
+        repository.applyLifecycleChanges(changes);
+
+        // then
+        var link = repository.getByLinkIdAndUser("user-1", "link-1");
+        var page = repository.findByUserId("user-1", PageRequest.of(0, 10));
+        assertSoftly(s -> {
+            s.assertThat(link).hasValueSatisfying(details -> s.assertThat(details.title()).isEqualTo("new"));
+            s.assertThat(page.getTotalElements()).isOne();
+        });
+    }
+
+    @Test
+    void shouldKeepUpdateOfExistingLinkFollowedByRedeliveredCreate() {
+        // given
+        var now = Instant.parse("2025-08-22T10:00:00Z");
+        fixtures.aDashboardLink(builder().userId("user-1").linkId("link-1").shortUrl("short-1").title("old").build());
+
+        var changes = new LinkLifecycleChanges();
+        changes.updated(aLink("link-1", "user-1", "long", "new", true, now.plusSeconds(60)));
+        changes.created(aLink("link-1", "user-1", "long", "old", true, now));
+
+        // when
+        repository.applyLifecycleChanges(changes);
+
+        // then
+        var link = repository.getByLinkIdAndUser("user-1", "link-1");
+        assertSoftly(s -> s.assertThat(link).hasValueSatisfying(details -> s.assertThat(details.title()).isEqualTo("new")));
+    }
+
+    @Test
+    void shouldRepairDriftedUserLinkStats() {
+        // given
+        fixtures.aDashboardLink(builder().userId("user-1").linkId("link-1").shortUrl("short-1").build());
+        fixtures.aDashboardLink(builder().userId("user-1").linkId("link-2").shortUrl("short-2").build());
+        fixtures.aDashboardLink(builder().userId("user-2").linkId("link-3").shortUrl("short-3").build());
+        jdbcTemplate.update("UPDATE user_link_stats SET link_count = 7 WHERE user_id = 'user-1'");
+        jdbcTemplate.update("DELETE FROM dashboard_links WHERE link_id = 'link-3'");
+
+        // when
+        var repaired = repository.reconcileUserLinkStats(repository.findUserIdsAfter("", 10));
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(repaired).isEqualTo(2);
+            s.assertThat(repository.findByUserId("user-1", PageRequest.of(0, 10)).getTotalElements()).isEqualTo(2);
+            s.assertThat(repository.findByUserId("user-2", PageRequest.of(0, 10)).getTotalElements()).isZero();
+        });
+    }
+
+    @Test
+    void shouldCountAndRecreateMissingUserLinkStats() {
+        // given
+        fixtures.aDashboardLink(builder().userId("user-1").linkId("link-1").shortUrl("short-1").build());
+        fixtures.aDashboardLink(builder().userId("user-1").linkId("link-2").shortUrl("short-2").build());
+        jdbcTemplate.update("DELETE FROM user_link_stats WHERE user_id = 'user-1'");
+
+        // when
+        var pageBeforeRepair = repository.findByUserId("user-1", PageRequest.of(0, 10));
+        var repaired = repository.reconcileUserLinkStats(repository.findUserIdsAfter("", 10));
+
+        // then
+        var linkCount = jdbcTemplate.queryForObject(
+                "SELECT link_count FROM user_link_stats WHERE user_id = 'user-1'", Long.class);
+        assertSoftly(s -> {
+            s.assertThat(pageBeforeRepair.getTotalElements()).isEqualTo(2);
+            s.assertThat(pageBeforeRepair.getContent()).hasSize(2);
+            s.assertThat(repaired).isOne();
+            s.assertThat(linkCount).isEqualTo(2);
+        });
+    }
+
+    @Test
+    void shouldStreamAllLinksOfUserInCreationOrder() {
+        // given
+        var userId = "export-user";
+        for (int i = 0; i < 3; i++) {
+            fixtures.aDashboardLink(builder()
+                    .userId(userId)
+                    .linkId("export-" + i)
+                    .shortUrl("export-" + i)
+                    .createdAt(Instant.parse("2025-08-2%dT10:00:00Z".formatted(i)))
+                    .build());
+        }
+        fixtures.aDashboardLink(builder().userId("other-user").linkId("other").shortUrl("other").build());
+        repository.applyClickDeltas(clickDeltas(aClick("export-1", "US", "Desktop", "Windows", "New York")));
+
+        // when
+        var exported = new ArrayList<DashboardLinkDetails>();
+        repository.streamByUserId(userId, true, 1, exported::add);
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(exported).extracting(DashboardLinkDetails::linkId)
+                    .containsExactly("export-0", "export-1", "export-2");
+            s.assertThat(exported.get(1).totalClicks()).isOne();
+            s.assertThat(exported.get(1).clicksByCountry()).contains("\"US\": 1");
+        });
+    }
+
+    @Test
+    void shouldStreamLinksWithoutDimensions() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+
+        // when
+        var exported = new ArrayList<DashboardLinkDetails>();
+        repository.streamByUserId(dashboardLink.getUserId(), false, 100, exported::add);
+
+        // then
+        assertThat(exported).singleElement().satisfies(link -> {
+            assertThat(link.linkId()).isEqualTo(dashboardLink.getLinkId());
+            assertThat(link.clicksByCountry()).isNull();
+        });
+    }
+
     @Test
     void shouldReturnEmptyPageForUserWithNoLinks() {
         // given
@@ -338,9 +1189,52 @@ class JdbcDashboardLinkRepositoryTest implements WithPostgres {
         });
     }
 
+    private DashboardLink aLink(String linkId, String userId, String longUrl, String title, boolean isActive,
+                                Instant at) {
+        return new DashboardLink(null, linkId, userId, "short-" + linkId, longUrl, title, isActive, at, at, 0);
+    }
+
+    private ClickDeltas clickDeltas(LinkClickEnrichedEvent... clicks) {
+        return clickDeltasAt(CLICKED_AT, clicks);
+    }
+
+    private ClickDeltas clickDeltasAt(Instant clickedAt, LinkClickEnrichedEvent... clicks) {
+        return ClickDeltas.of(List.of(clicks), Collections.nCopies(clicks.length, clickedAt.toEpochMilli()));
+    }
+
+    private LinkClickEnrichedEvent aClick(String linkId, String countryCode, String deviceType, String osName,
+                                          String cityName) {
+        return LinkClickEnrichedEvent.newBuilder()
+                .setLinkId(linkId)
+                .setCountryCode(countryCode)
+                .setDeviceType(deviceType)
+                .setOsName(osName)
+                .setCityName(cityName)
+                .setCityLatitude("40.71")
+                .setCityLongitude("-74.00")
+                .build();
+    }
+
+    private Long cityClicks(String linkId, String cityName) {
+        return jdbcTemplate.queryForObject(
+                "SELECT clicks FROM dashboard_link_city_stats WHERE link_id = ? AND city_name = ?",
+                Long.class, linkId, cityName);
+    }
+
+    private Long dimensionClicks(String linkId, String dimension, String key) {
+        return jdbcTemplate.queryForObject(
+                "SELECT SUM(clicks) FROM dashboard_link_dimension_clicks WHERE link_id = ? AND dimension = ? AND key = ?",
+                Long.class, linkId, dimension, key);
+    }
+
     @TestConfiguration
     static class TestConfig {
 
+        @Bean
+        JdbcDashboardLinkRepository jdbcDashboardLinkRepository(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+            return new JdbcDashboardLinkRepository(jdbcTemplate, objectMapper, DimensionStorage.DUAL, null);
+        }
+
         @Bean
         public ObjectMapper objectMapper() {
             ObjectMapper mapper = new ObjectMapper();
@@ -0,0 +1,56 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.DashboardLinkDetailsResponse;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.SoftAssertions.assertSoftly;
+
+class LinkDetailsCacheTest {
+
+    private final LinkDetailsCache cache = new LinkDetailsCache(new SimpleMeterRegistry(), 1_000_000,
+            Duration.ofMinutes(10), Duration.ZERO);
+
+    @Test
+    void shouldReplaceStaleEntryButKeepFreshOne() {
+        // given
+        cache.get("user-1", "link-1", () -> Optional.of(details(1)));
+        cache.markClicked(List.of("link-1"));
+
+        // when
+        cache.putIfAbsentOrStale("user-1", details(2), cache.invalidations());
+        var replaced = cache.peek("user-1", "link-1");
+        cache.putIfAbsentOrStale("user-1", details(3), cache.invalidations());
+        var kept = cache.peek("user-1", "link-1");
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(replaced).hasValueSatisfying(link -> s.assertThat(link.totalClicks()).isEqualTo(2));
+            s.assertThat(kept).hasValueSatisfying(link -> s.assertThat(link.totalClicks()).isEqualTo(2));
+        });
+    }
+
+    @Test
+    void shouldSkipPutAfterInvalidation() {
+        // given
+        var invalidationsBefore = cache.invalidations();
+        cache.invalidate("link-1");
+
+        // when
+        cache.putIfAbsentOrStale("user-1", details(1), invalidationsBefore);
+
+        // then
+        assertSoftly(s -> s.assertThat(cache.peek("user-1", "link-1")).isEmpty());
+    }
+
+    private static DashboardLinkDetailsResponse details(long totalClicks) {
+        var updatedAt = Instant.parse("2025-08-22T10:00:00Z");
+        return new DashboardLinkDetailsResponse("link-1", "short", "https://example.com", "title", true,
+                updatedAt, updatedAt, totalClicks, List.of(), List.of(), List.of(), null);
+    }
+}
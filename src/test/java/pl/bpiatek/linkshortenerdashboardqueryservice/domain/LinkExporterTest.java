@@ -0,0 +1,71 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.SoftAssertions.assertSoftly;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+
+class LinkExporterTest {
+
+    private final DashboardLinkRepository repository = mock(DashboardLinkRepository.class);
+    private final LinkExporter exporter = new LinkExporter(repository, new DashboardLinkDetailsDtoMapper(new ObjectMapper()),
+            new ObjectMapper().findAndRegisterModules(), new SimpleMeterRegistry(), 500, 1, Duration.ofHours(2));
+
+    @Test
+    void shouldReturnPermitOnceExportIsWritten() throws IOException {
+        // given
+        var export = exporter.tryExport("user-1", ExportFormat.CSV, false).orElseThrow();
+        var rejected = exporter.tryExport("user-1", ExportFormat.CSV, false);
+
+        // when
+        export.writeTo(new ByteArrayOutputStream());
+
+        // then
+        assertSoftly(s -> {
+            s.assertThat(export.timeout()).isEqualTo(Duration.ofHours(2));
+            s.assertThat(rejected).isEmpty();
+            s.assertThat(exporter.tryExport("user-1", ExportFormat.CSV, false)).isPresent();
+        });
+    }
+
+    @Test
+    void shouldReturnPermitAndStopStreamingWhenReleasedBeforeFinishing() {
+        // given
+        var export = exporter.tryExport("user-1", ExportFormat.NDJSON, false).orElseThrow();
+        willAnswer(invocation -> {
+            Consumer<DashboardLinkDetails> action = invocation.getArgument(3);
+            action.accept(aLink("link-1"));
+            export.release();
+            action.accept(aLink("link-2"));
+            return null;
+        }).given(repository).streamByUserId(anyString(), anyBoolean(), anyInt(), any());
+
+        // when
+        var next = exporter.tryExport("user-1", ExportFormat.NDJSON, false);
+
+        // then
+        assertSoftly(s -> s.assertThat(next).isEmpty());
+        assertThatThrownBy(() -> export.writeTo(new ByteArrayOutputStream())).isInstanceOf(IOException.class);
+        assertSoftly(s -> s.assertThat(exporter.tryExport("user-1", ExportFormat.NDJSON, false)).isPresent());
+    }
+
+    private static DashboardLinkDetails aLink(String linkId) {
+        var now = Instant.parse("2025-08-22T10:00:00Z");
+        return new DashboardLinkDetails(1L, linkId, "user-1", "short", "https://example.com", "title", true,
+                now, now, 1, null, null, null);
+    }
+}
@@ -47,6 +47,7 @@ class LinkLifecycleConsumerTest implements WithFullInfrastructure {
     @AfterEach
     void cleanUp() {
         jdbcTemplate.update("DELETE FROM dashboard_links");
+        jdbcTemplate.update("DELETE FROM user_link_stats");
     }
 
     @Test
@@ -0,0 +1,75 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.MetricEntryResponse;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Compares the streaming metric decoder with the previous map based decoding. Run the main method
+ * from the test classpath; add {@code -prof gc} to the options to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricEntriesDecoderBenchmark {
+
+    @Param({"5", "50", "200"})
+    int keys;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String json;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        json = IntStream.range(0, keys)
+                .mapToObj(i -> "\"key-%d\": %d".formatted(i, random.nextInt(100_000)))
+                .collect(Collectors.joining(", ", "{", "}"));
+    }
+
+    @Benchmark
+    public List<MetricEntryResponse> mapBased() throws IOException {
+        Map<String, Long> map = objectMapper.readValue(json, new TypeReference<>() {});
+        return map.entrySet().stream()
+                .map(e -> new MetricEntryResponse(e.getKey(), e.getValue()))
+                .sorted(Comparator.comparing(MetricEntryResponse::value).reversed())
+                .toList();
+    }
+
+    @Benchmark
+    public List<MetricEntryResponse> streaming() throws IOException {
+        return MetricEntriesDecoder.decode(objectMapper.getFactory(), json);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MetricEntriesDecoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
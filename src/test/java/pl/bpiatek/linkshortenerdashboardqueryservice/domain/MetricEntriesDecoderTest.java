@@ -0,0 +1,54 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.Test;
+import pl.bpiatek.linkshortenerdashboardqueryservice.api.dto.MetricEntryResponse;
+
+import java.io.IOException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetricEntriesDecoderTest {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Test
+    void shouldDecodeEntriesOrderedByCountDescending() throws IOException {
+        // when
+        var entries = MetricEntriesDecoder.decode(jsonFactory, "{\"PL\": 2, \"US\": 5, \"DE\": 2, \"FR\": 9}");
+
+        // then
+        assertThat(entries).containsExactly(
+                new MetricEntryResponse("FR", 9),
+                new MetricEntryResponse("US", 5),
+                new MetricEntryResponse("PL", 2),
+                new MetricEntryResponse("DE", 2));
+    }
+
+    @Test
+    void shouldKeepJsonOrderOfTiesWhenMergingLargeMaps() throws IOException {
+        // given
+        var json = IntStream.range(0, 200)
+                .mapToObj(i -> "\"k%03d\": %d".formatted(i, i % 7))
+                .collect(Collectors.joining(", ", "{", "}"));
+
+        // when
+        var entries = MetricEntriesDecoder.decode(jsonFactory, json);
+
+        // then
+        assertThat(entries).hasSize(200);
+        assertThat(entries).isSortedAccordingTo((a, b) -> Long.compare(b.value(), a.value()));
+        assertThat(entries.stream().filter(entry -> entry.value() == 6).map(MetricEntryResponse::key))
+                .isSorted();
+    }
+
+    @Test
+    void shouldRejectNonObjectJson() {
+        assertThatThrownBy(() -> MetricEntriesDecoder.decode(jsonFactory, "[1, 2]"))
+                .isInstanceOf(JsonProcessingException.class);
+    }
+}
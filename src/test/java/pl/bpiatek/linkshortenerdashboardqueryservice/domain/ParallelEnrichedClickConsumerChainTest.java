@@ -0,0 +1,66 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.Acknowledgment;
+import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
+
+import java.time.Duration;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class ParallelEnrichedClickConsumerChainTest {
+
+    private static final String TOPIC = "analytics-enriched-clicks-events-test";
+
+    private final DashboardLinkRepository repository = mock(DashboardLinkRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ParallelEnrichedClickConsumer consumer = new ParallelEnrichedClickConsumer(
+            repository,
+            mock(HotLinkDetector.class),
+            mock(LinkDetailsCache.class),
+            mock(LiveClickHub.class),
+            new ClickWriteMetrics(meterRegistry, "parallel"),
+            meterRegistry,
+            3,
+            1,
+            Duration.ofMillis(10),
+            Duration.ofSeconds(5));
+
+    @AfterEach
+    void cleanUp() {
+        consumer.close();
+    }
+
+    @Test
+    void shouldKeepWritingLinkAfterTaskFailsWithError() throws InterruptedException {
+        // given
+        willThrow(new LinkageError("simulated")).willDoNothing().given(repository).applyClickDeltas(any());
+        var firstAck = mock(Acknowledgment.class);
+        var secondAck = mock(Acknowledgment.class);
+        var thirdAck = mock(Acknowledgment.class);
+
+        // when
+        consumer.consume(aRecord(0), firstAck);
+        consumer.consume(aRecord(1), secondAck);
+        consumer.consume(aRecord(2), thirdAck);
+
+        // then
+        verify(repository, timeout(5_000).times(3)).applyClickDeltas(any());
+        verify(thirdAck, timeout(5_000)).acknowledge();
+    }
+
+    private static ConsumerRecord<String, LinkClickEnrichedEvent> aRecord(long offset) {
+        var event = LinkClickEnrichedEvent.newBuilder()
+                .setLinkId("link-1")
+                .setCountryCode("US")
+                .build();
+        return new ConsumerRecord<>(TOPIC, 0, offset, null, event);
+    }
+}
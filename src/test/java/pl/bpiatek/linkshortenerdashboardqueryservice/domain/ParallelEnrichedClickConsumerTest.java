@@ -0,0 +1,90 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.SoftAssertions.assertSoftly;
+import static org.awaitility.Awaitility.await;
+import static pl.bpiatek.linkshortenerdashboardqueryservice.domain.TestDashboardLink.builder;
+
+@SpringBootTest(properties = "dashboard.clicks.ingest-mode=parallel")
+@ActiveProfiles("test")
+class ParallelEnrichedClickConsumerTest implements WithFullInfrastructure {
+
+    @Autowired
+    private KafkaTemplate<String, LinkClickEnrichedEvent> kafkaTemplate;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${topic.analytics.enriched}")
+    private String topicName;
+
+    @Autowired
+    DashboardLinkFixtures fixtures;
+
+    @DynamicPropertySource
+    static void kafkaProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.kafka.bootstrap-servers", redpanda::getBootstrapServers);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM dashboard_links");
+        jdbcTemplate.update("DELETE FROM dashboard_link_city_stats");
+        jdbcTemplate.update("DELETE FROM user_link_stats");
+    }
+
+    @Test
+    void shouldWriteClicksOfManyLinksConcurrently() {
+        // given
+        var firstLink = fixtures.aDashboardLink(builder().linkId("parallel-1").shortUrl("parallel-1").build());
+        var secondLink = fixtures.aDashboardLink(builder().linkId("parallel-2").shortUrl("parallel-2").build());
+
+        // when
+        for (int i = 0; i < 20; i++) {
+            kafkaTemplate.send(topicName, aClick(firstLink.getLinkId(), i % 2 == 0 ? "US" : "PL"));
+            kafkaTemplate.send(topicName, aClick(secondLink.getLinkId(), "DE"));
+        }
+
+        // then
+        await().atMost(Duration.ofSeconds(10)).untilAsserted(() -> {
+            var firstFromDb = fixtures.getByShortUrl(firstLink.getShortUrl());
+            var secondFromDb = fixtures.getByShortUrl(secondLink.getShortUrl());
+            assertThat(firstFromDb).isNotNull();
+            assertThat(secondFromDb).isNotNull();
+            assertSoftly(s -> {
+                s.assertThat(firstFromDb.getTotalClicks()).isEqualTo(20L);
+                s.assertThat(firstFromDb.getClicksByCountry().get("US")).isEqualTo(10L);
+                s.assertThat(firstFromDb.getClicksByCountry().get("PL")).isEqualTo(10L);
+                s.assertThat(secondFromDb.getTotalClicks()).isEqualTo(20L);
+                s.assertThat(meterRegistry.get("dashboard.clicks.parallel.in-flight").gauge().value()).isZero();
+            });
+        });
+    }
+
+    private LinkClickEnrichedEvent aClick(String linkId, String countryCode) {
+        return LinkClickEnrichedEvent.newBuilder()
+                .setLinkId(linkId)
+                .setCountryCode(countryCode)
+                .setDeviceType("Desktop")
+                .setOsName("Windows")
+                .build();
+    }
+}
@@ -0,0 +1,119 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.SoftAssertions.assertSoftly;
+import static org.awaitility.Awaitility.await;
+
+class SingleFlightTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void shouldRunIdenticalConcurrentQueriesOnceOnVirtualThreads() throws Exception {
+        // given
+        var singleFlight = new SingleFlight<String, String>(meterRegistry, "link", Duration.ofSeconds(5));
+        var release = new CountDownLatch(1);
+        var queries = new AtomicInteger();
+        var callers = 50;
+
+        // when
+        var results = new ArrayList<Future<String>>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> singleFlight.execute("user-1/link-1", () -> {
+                    queries.incrementAndGet();
+                    awaitQuietly(release);
+                    return "details";
+                })));
+            }
+            await().atMost(Duration.ofSeconds(5)).until(() ->
+                    meterRegistry.get("dashboard.reads.single-flight").tag("role", "follower").counter().count()
+                            == callers - 1);
+            release.countDown();
+        }
+
+        // then
+        assertSoftly(s -> {
+            for (var result : results) {
+                s.assertThat(result).succeedsWithin(Duration.ZERO).isEqualTo("details");
+            }
+            s.assertThat(queries).hasValue(1);
+            s.assertThat(meterRegistry.get("dashboard.reads.single-flight").tag("role", "leader").counter().count())
+                    .isEqualTo(1);
+        });
+    }
+
+    @Test
+    void shouldRunQueryAgainWhenLeaderOutlivesTimeout() throws Exception {
+        // given
+        var singleFlight = new SingleFlight<String, String>(meterRegistry, "links", Duration.ofMillis(50));
+        var release = new CountDownLatch(1);
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var leader = executor.submit(() -> singleFlight.execute("user-1", () -> {
+                awaitQuietly(release);
+                return "slow";
+            }));
+            await().atMost(Duration.ofSeconds(5)).until(() ->
+                    meterRegistry.get("dashboard.reads.single-flight").tag("role", "leader").counter().count() == 1);
+
+            // when
+            var follower = singleFlight.execute("user-1", () -> "fresh");
+            release.countDown();
+
+            // then
+            assertSoftly(s -> {
+                s.assertThat(follower).isEqualTo("fresh");
+                s.assertThat(leader).succeedsWithin(Duration.ofSeconds(5)).isEqualTo("slow");
+                s.assertThat(meterRegistry.get("dashboard.reads.single-flight.timeouts").counter().count())
+                        .isEqualTo(1);
+            });
+        }
+    }
+
+    @Test
+    void shouldShareFailureWithWaitingCallersAndForgetIt() throws Exception {
+        // given
+        var singleFlight = new SingleFlight<String, String>(meterRegistry, "link", Duration.ofSeconds(5));
+        var release = new CountDownLatch(1);
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            executor.submit(() -> singleFlight.execute("user-1/link-1", () -> {
+                awaitQuietly(release);
+                throw new IllegalStateException("database down");
+            }));
+            await().atMost(Duration.ofSeconds(5)).until(() ->
+                    meterRegistry.get("dashboard.reads.single-flight").tag("role", "leader").counter().count() == 1);
+            var follower = executor.submit(() -> singleFlight.execute("user-1/link-1", () -> "unused"));
+            await().atMost(Duration.ofSeconds(5)).until(() ->
+                    meterRegistry.get("dashboard.reads.single-flight").tag("role", "follower").counter().count() == 1);
+
+            // when
+            release.countDown();
+
+            // then
+            assertThatThrownBy(() -> follower.get(5, TimeUnit.SECONDS)).hasRootCauseMessage("database down");
+            assertThat(singleFlight.execute("user-1/link-1", () -> "recovered")).isEqualTo("recovered");
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.SoftAssertions.assertSoftly;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willDoNothing;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class WriteBehindClickAccumulatorTest {
+
+    private static final String TOPIC = "analytics-enriched-clicks-events-test";
+    private static final TopicPartition REVOKED = new TopicPartition(TOPIC, 0);
+    private static final TopicPartition RETAINED = new TopicPartition(TOPIC, 1);
+
+    private final DashboardLinkRepository repository = mock(DashboardLinkRepository.class);
+    private final WriteBehindClickAccumulator accumulator = new WriteBehindClickAccumulator(
+            repository,
+            new TransactionTemplate(mock(PlatformTransactionManager.class)),
+            mock(HotLinkDetector.class),
+            mock(LinkDetailsCache.class),
+            mock(LiveClickHub.class),
+            new SimpleMeterRegistry(),
+            4,
+            10_000);
+    private final WriteBehindClickConsumer listener = new WriteBehindClickConsumer(accumulator);
+
+    @Test
+    void shouldRewindRetainedPartitionsWhenFlushFailsOnRevocation() {
+        // given
+        var revokedConsumer = consumerOf(REVOKED);
+        var retainedConsumer = consumerOf(RETAINED);
+        var revokedAck = mock(Acknowledgment.class);
+        var retainedAck = mock(Acknowledgment.class);
+        accumulator.add(records(REVOKED, 10, 11), revokedConsumer, revokedAck);
+        accumulator.add(records(RETAINED, 20, 21), retainedConsumer, retainedAck);
+        willThrow(new IllegalStateException("database down")).given(repository).applyClickDeltas(any());
+
+        // when
+        listener.onPartitionsRevokedBeforeCommit(revokedConsumer, List.of(REVOKED));
+        willDoNothing().given(repository).applyClickDeltas(any());
+        var rejectedAck = mock(Acknowledgment.class);
+        accumulator.add(records(RETAINED, 22), retainedConsumer, rejectedAck);
+        var replayedAck = mock(Acknowledgment.class);
+        accumulator.add(records(RETAINED, 20, 21, 22), retainedConsumer, replayedAck);
+        accumulator.flush();
+
+        // then
+        var flushed = ArgumentCaptor.forClass(ClickDeltas.class);
+        verify(repository, atLeastOnce()).applyClickDeltas(flushed.capture());
+        verify(retainedConsumer).seek(RETAINED, 20);
+        verify(revokedConsumer, never()).seek(any(TopicPartition.class), anyLong());
+        verify(revokedAck, never()).acknowledge();
+        verify(retainedAck, never()).acknowledge();
+        verify(rejectedAck, never()).acknowledge();
+        verify(replayedAck).acknowledge();
+        assertSoftly(s -> s.assertThat(flushed.getValue().events()).isEqualTo(3));
+    }
+
+    @Test
+    void shouldNotRewindPartitionAssignedAfterDiscard() {
+        // given
+        var consumer = consumerOf(RETAINED);
+        var discardedAck = mock(Acknowledgment.class);
+        accumulator.add(records(RETAINED, 20, 21), consumer, discardedAck);
+        willThrow(new IllegalStateException("database down")).given(repository).applyClickDeltas(any());
+        listener.onPartitionsRevokedBeforeCommit(consumerOf(REVOKED), List.of(REVOKED));
+
+        // when
+        listener.onPartitionsAssigned(consumer, List.of(RETAINED));
+        willDoNothing().given(repository).applyClickDeltas(any());
+        var ack = mock(Acknowledgment.class);
+        accumulator.add(records(RETAINED, 20, 21), consumer, ack);
+        accumulator.flush();
+
+        // then
+        verify(consumer, never()).seek(any(TopicPartition.class), anyLong());
+        verify(discardedAck, never()).acknowledge();
+        verify(ack).acknowledge();
+    }
+
+    private static Consumer<?, ?> consumerOf(TopicPartition partition) {
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        given(consumer.assignment()).willReturn(Set.of(partition));
+        return consumer;
+    }
+
+    private static List<ConsumerRecord<String, LinkClickEnrichedEvent>> records(TopicPartition partition,
+                                                                               long... offsets) {
+        var records = new ArrayList<ConsumerRecord<String, LinkClickEnrichedEvent>>();
+        for (var offset : offsets) {
+            var event = LinkClickEnrichedEvent.newBuilder()
+                    .setLinkId("link-" + partition.partition())
+                    .setCountryCode("US")
+                    .build();
+            records.add(new ConsumerRecord<>(partition.topic(), partition.partition(), offset, null, event));
+        }
+        return records;
+    }
+}
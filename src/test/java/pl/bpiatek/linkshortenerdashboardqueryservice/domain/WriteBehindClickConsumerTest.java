@@ -0,0 +1,80 @@
+package pl.bpiatek.linkshortenerdashboardqueryservice.domain;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import pl.bpiatek.contracts.analytics.AnalyticsEventProto.LinkClickEnrichedEvent;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.SoftAssertions.assertSoftly;
+import static org.awaitility.Awaitility.await;
+
+@SpringBootTest(properties = {
+        "dashboard.clicks.ingest-mode=write-behind",
+        "dashboard.clicks.write-behind.flush-interval-ms=200"
+})
+@ActiveProfiles("test")
+class WriteBehindClickConsumerTest implements WithFullInfrastructure {
+
+    @Autowired
+    private KafkaTemplate<String, LinkClickEnrichedEvent> kafkaTemplate;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${topic.analytics.enriched}")
+    private String topicName;
+
+    @Autowired
+    DashboardLinkFixtures fixtures;
+
+    @DynamicPropertySource
+    static void kafkaProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.kafka.bootstrap-servers", redpanda::getBootstrapServers);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM dashboard_links");
+    }
+
+    @Test
+    void shouldFlushBufferedClicks() {
+        // given
+        var dashboardLink = fixtures.aDashboardLink();
+        var event = LinkClickEnrichedEvent.newBuilder()
+                .setLinkId(dashboardLink.getLinkId())
+                .setCountryCode("US")
+                .setDeviceType("Desktop")
+                .setOsName("Windows")
+                .build();
+
+        // when
+        kafkaTemplate.send(topicName, event);
+        kafkaTemplate.send(topicName, event);
+
+        // then
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> {
+            var linkByShortUrl = fixtures.getByShortUrl(dashboardLink.getShortUrl());
+            assertThat(linkByShortUrl).isNotNull();
+            assertSoftly(s -> {
+                s.assertThat(linkByShortUrl.getTotalClicks()).isEqualTo(2L);
+                s.assertThat(linkByShortUrl.getClicksByCountry().get("US")).isEqualTo(2L);
+                s.assertThat(meterRegistry.get("dashboard.clicks.flush").timer().count()).isPositive();
+            });
+        });
+    }
+}